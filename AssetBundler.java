@@ -0,0 +1,212 @@
+package ir.seam.ui.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * concatenates classpath scripts or style sheets into one {@link CachedAsset}.
+ * minification is conservative, it only drops comments, indentation and blank
+ * lines and never rewrites code, line breaks of scripts are kept so automatic
+ * semicolon insertion is not affected
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public final class AssetBundler
+{
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private AssetBundler()
+    {
+    }
+
+    /**
+     * @param name
+     *            bundle name, extension decides content type (.js or .css)
+     * @param resources
+     *            classpath resources, comma separated
+     * @param minify
+     * @param minLastModified
+     *            last modified is never before this time
+     */
+    public static CachedAsset build(String name, String resources, boolean minify, long minLastModified) throws IOException
+    {
+        boolean css = name.toLowerCase(Locale.ENGLISH).endsWith(".css");
+        long lastModified = minLastModified;
+        ByteArrayOutputStream bundle = new ByteArrayOutputStream();
+        for (String resource : split(resources))
+        {
+            URL url = AssetBundler.class.getResource(resource);
+            if (url == null)
+                throw new IOException("bundle " + name + " : resource not found " + resource);
+            long timestamp = getTimestamp(url);
+            if (timestamp > lastModified)
+                lastModified = timestamp;
+            String text = new String(read(url), UTF8);
+            if (minify)
+                text = css ? minifyCss(text) : minifyJs(text);
+            bundle.write(text.getBytes(UTF8));
+            // a script without trailing semicolon must not run into the next
+            // one
+            bundle.write((css ? "\n" : ";\n").getBytes(UTF8));
+        }
+        return new CachedAsset(bundle.toByteArray(), css ? "text/css" : "text/javascript", lastModified);
+    }
+
+    static List<String> split(String resources)
+    {
+        List<String> list = new ArrayList<String>();
+        if (resources == null)
+            return list;
+        for (String resource : resources.split(","))
+        {
+            String trimmed = resource.trim();
+            if (trimmed.length() > 0)
+                list.add(trimmed);
+        }
+        return list;
+    }
+
+    private static byte[] read(URL url) throws IOException
+    {
+        InputStream in = null;
+        try
+        {
+            in = url.openStream();
+            return IOUtils.toByteArray(in);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    static long getTimestamp(URL url)
+    {
+        try
+        {
+            URLConnection connection = url.openConnection();
+            return connection.getLastModified();
+        }
+        catch (IOException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * drops whole line comments, block comments standing on their own lines
+     * (except license comments starting with /*!), indentation and blank
+     * lines. comments after code are kept because telling them apart from
+     * strings and regular expressions needs a full parser. scripts with
+     * template literals are left untouched
+     */
+    public static String minifyJs(String source)
+    {
+        if (source.indexOf('`') != -1)
+            return source;
+        StringBuilder sb = new StringBuilder(source.length());
+        boolean inComment = false;
+        boolean continued = false;
+        for (String line : source.split("\r\n|\r|\n"))
+        {
+            if (continued)
+            {
+                // previous line ended inside a string with a backslash
+                continued = line.endsWith("\\");
+                sb.append(line).append('\n');
+                continue;
+            }
+            String trimmed = line.trim();
+            if (inComment)
+            {
+                if (trimmed.endsWith("*/"))
+                    inComment = false;
+                else if (trimmed.contains("*/"))
+                {
+                    // code after comment end
+                    inComment = false;
+                    sb.append(trimmed.substring(trimmed.indexOf("*/") + 2).trim()).append('\n');
+                }
+                continue;
+            }
+            if (trimmed.length() == 0 || trimmed.startsWith("//"))
+                continue;
+            if (trimmed.startsWith("/*") && trimmed.startsWith("/*!") == false)
+            {
+                int end = trimmed.indexOf("*/", 2);
+                if (end == -1)
+                {
+                    inComment = true;
+                    continue;
+                }
+                if (end == trimmed.length() - 2)
+                    continue;
+            }
+            continued = line.endsWith("\\");
+            sb.append(continued ? line : trimmed).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * drops comments and collapses white space outside of strings
+     */
+    public static String minifyCss(String source)
+    {
+        StringBuilder sb = new StringBuilder(source.length());
+        int length = source.length();
+        boolean space = false;
+        int i = 0;
+        while (i < length)
+        {
+            char c = source.charAt(i);
+            if (c == '/' && i + 1 < length && source.charAt(i + 1) == '*')
+            {
+                int end = source.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+                continue;
+            }
+            if (c == '"' || c == '\'')
+            {
+                int start = i;
+                i++;
+                while (i < length && source.charAt(i) != c)
+                {
+                    if (source.charAt(i) == '\\')
+                        i++;
+                    i++;
+                }
+                i = Math.min(i + 1, length);
+                if (space)
+                    sb.append(' ');
+                space = false;
+                sb.append(source, start, i);
+                continue;
+            }
+            if (Character.isWhitespace(c))
+            {
+                space = sb.length() > 0;
+                i++;
+                continue;
+            }
+            if (space && "{};,>".indexOf(c) == -1 && "{};,>".indexOf(sb.charAt(sb.length() - 1)) == -1)
+                sb.append(' ');
+            space = false;
+            sb.append(c);
+            i++;
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,310 @@
+package com.omidbiz;
+
+import static org.jboss.seam.ScopeType.APPLICATION;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jboss.seam.annotations.Destroy;
+import org.jboss.seam.annotations.Name;
+import org.jboss.seam.annotations.Scope;
+import org.jboss.seam.annotations.Startup;
+import org.jboss.seam.annotations.intercept.BypassInterceptors;
+
+/**
+ * servlet 3 variant of {@link RequestProcessor}, parameters are bound on the
+ * container thread and the transactional work runs on a bounded executor. when
+ * the executor queue is full the request is answered with 503 right away.
+ * on timeout a request which did not start is answered with 503, a running
+ * one is interrupted and gets a short grace time to leave seam request
+ * processing before the response is completed
+ *
+ * <pre>
+ * new AsyncRequestProcessor&lt;User&gt;(req) {
+ *     protected void workInTransaction() { ... }
+ * }.start(resp);
+ * </pre>
+ *
+ * @author Omid Pourhadi : omidpourhadi [AT] gmail [DOT] com
+ * @param <E>
+ *            : entity
+ */
+public abstract class AsyncRequestProcessor<E> extends RequestProcessor<E>
+{
+
+    public static final int DEFAULT_THREADS = 16;
+    public static final int DEFAULT_QUEUE_DEPTH = 256;
+    public static final long DEFAULT_TIMEOUT_MILLIS = 30000;
+    private static final long TIMEOUT_GRACE_MILLIS = 5000;
+    private static final long SHUTDOWN_WAIT_MILLIS = 10000;
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int FINISHED = 2;
+
+    private static ExecutorService executor;
+    private static long timeoutMillis = DEFAULT_TIMEOUT_MILLIS;
+
+    private static final AtomicLong rejectedCount = new AtomicLong();
+
+    public AsyncRequestProcessor(HttpServletRequest request)
+    {
+        super(request);
+    }
+
+    /**
+     * replaces the shared executor, the previous one finishes its queued
+     * requests
+     *
+     * @param threads
+     *            worker threads, keep it near the connection pool size
+     * @param queueDepth
+     *            requests waiting for a worker before 503 is sent
+     */
+    public static synchronized void configure(int threads, int queueDepth, long timeoutMillis)
+    {
+        setExecutor(RequestExecutors.newBoundedExecutor(threads, queueDepth));
+        AsyncRequestProcessor.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * runs requests on virtual threads when jdk supports them, see
+     * {@link RequestExecutors#newCappedExecutor(int, int)}
+     *
+     * @param maxConcurrent
+     *            requests running at once, keep it near the connection pool
+     *            size
+     * @param maxWaiting
+     *            requests waiting for a permit before 503 is sent
+     */
+    public static synchronized void configureVirtualThreads(int maxConcurrent, int maxWaiting, long timeoutMillis)
+    {
+        setExecutor(RequestExecutors.newCappedExecutor(maxConcurrent, maxWaiting));
+        AsyncRequestProcessor.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * executor must reject with {@link RejectedExecutionException} when it is
+     * saturated
+     */
+    public static synchronized void setExecutor(ExecutorService executorService)
+    {
+        if (executor != null)
+            executor.shutdown();
+        executor = executorService;
+    }
+
+    /**
+     * stops the shared executor and waits a while for running requests,
+     * called when the application is undeployed
+     */
+    public static void shutdownExecutor()
+    {
+        ExecutorService executorService;
+        synchronized (AsyncRequestProcessor.class)
+        {
+            executorService = executor;
+            executor = null;
+        }
+        if (executorService == null)
+            return;
+        executorService.shutdown();
+        try
+        {
+            if (executorService.awaitTermination(SHUTDOWN_WAIT_MILLIS, TimeUnit.MILLISECONDS) == false)
+                executorService.shutdownNow();
+        }
+        catch (InterruptedException e)
+        {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    static synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
+            executor = RequestExecutors.newBoundedExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_DEPTH);
+        return executor;
+    }
+
+    /**
+     * starts async processing, falls back to {@link #run()} on the calling
+     * thread when the request does not support async
+     */
+    public void start(final HttpServletResponse response) throws IOException
+    {
+        if (request.isAsyncSupported() == false)
+        {
+            runAndReport(response);
+            return;
+        }
+        final AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(timeoutMillis);
+        // whoever moves the state to FINISHED writes the final response
+        final AtomicInteger state = new AtomicInteger(QUEUED);
+        final CountDownLatch left = new CountDownLatch(1);
+        final AtomicReference<Future<?>> task = new AtomicReference<Future<?>>();
+        asyncContext.addListener(new AsyncListener() {
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException
+            {
+                if (state.compareAndSet(QUEUED, FINISHED))
+                {
+                    cancel(task.get(), false);
+                    sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    asyncContext.complete();
+                    return;
+                }
+                if (state.get() != RUNNING)
+                    return;
+                // request must stay valid until seam request processing ends
+                cancel(task.get(), true);
+                try
+                {
+                    left.await(TIMEOUT_GRACE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                if (state.compareAndSet(RUNNING, FINISHED))
+                {
+                    logger.warn("async request did not stop within " + TIMEOUT_GRACE_MILLIS + " ms after timeout");
+                    sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                    asyncContext.complete();
+                }
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException
+            {
+                state.set(FINISHED);
+            }
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException
+            {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException
+            {
+            }
+        });
+        try
+        {
+            task.set(getExecutor().submit(new Runnable() {
+
+                @Override
+                public void run()
+                {
+                    // timed out or failed before start, request is gone
+                    if (state.compareAndSet(QUEUED, RUNNING) == false)
+                        return;
+                    try
+                    {
+                        runAndReport(response, state);
+                    }
+                    finally
+                    {
+                        left.countDown();
+                        if (state.compareAndSet(RUNNING, FINISHED))
+                            asyncContext.complete();
+                    }
+                }
+            }));
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejectedCount.incrementAndGet();
+            if (state.compareAndSet(QUEUED, FINISHED))
+            {
+                sendError(response, HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                asyncContext.complete();
+            }
+        }
+    }
+
+    private static void cancel(Future<?> task, boolean interrupt)
+    {
+        if (task != null)
+            task.cancel(interrupt);
+    }
+
+    private void runAndReport(HttpServletResponse response)
+    {
+        runAndReport(response, null);
+    }
+
+    /**
+     * @param state
+     *            error is not written once the request timed out
+     */
+    private void runAndReport(HttpServletResponse response, AtomicInteger state)
+    {
+        try
+        {
+            run();
+        }
+        catch (Exception e)
+        {
+            logger.error(e.getMessage(), e);
+            if (state == null || state.get() == RUNNING)
+                sendError(response, HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    private static void sendError(HttpServletResponse response, int status)
+    {
+        if (response.isCommitted())
+            return;
+        try
+        {
+            response.sendError(status);
+        }
+        catch (IOException e)
+        {
+            logger.info(e.getMessage());
+        }
+    }
+
+    /**
+     * @return requests answered with 503 because executor was saturated
+     */
+    public static long getRejectedCount()
+    {
+        return rejectedCount.get();
+    }
+
+    /**
+     * shuts the shared executor down with the application
+     */
+    @Name("com.omidbiz.asyncRequestExecutorShutdown")
+    @Scope(APPLICATION)
+    @Startup
+    @BypassInterceptors
+    public static class Shutdown
+    {
+        @Destroy
+        public void destroy()
+        {
+            shutdownExecutor();
+        }
+    }
+
+}
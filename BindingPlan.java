@@ -0,0 +1,137 @@
+package com.omidbiz;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * per entity class binding metadata, built once on first use and shared by
+ * every request that binds the same class
+ *
+ * @author Omid Pourhadi : omidpourhadi [AT] gmail [DOT] com
+ *
+ */
+public class BindingPlan
+{
+
+    private static final ConcurrentMap<Class<?>, BindingPlan> PLANS = new ConcurrentHashMap<Class<?>, BindingPlan>();
+
+    private final Class<?> type;
+    private final Map<String, FieldBinding> bindings;
+
+    private BindingPlan(Class<?> type)
+    {
+        this.type = type;
+        Map<String, FieldBinding> map = new HashMap<String, FieldBinding>();
+        List<Field> fields = ReflectionUtil.getFields(type);
+        for (Field field : fields)
+        {
+            // fields of subclass shadow the super class ones
+            if (map.containsKey(field.getName()) == false)
+                map.put(field.getName(), new FieldBinding(field));
+        }
+        this.bindings = Collections.unmodifiableMap(map);
+    }
+
+    public static BindingPlan of(Class<?> type)
+    {
+        BindingPlan plan = PLANS.get(type);
+        if (plan == null)
+        {
+            BindingPlan newPlan = new BindingPlan(type);
+            plan = PLANS.putIfAbsent(type, newPlan);
+            if (plan == null)
+                plan = newPlan;
+        }
+        return plan;
+    }
+
+    public Class<?> getType()
+    {
+        return type;
+    }
+
+    /**
+     * @param name
+     * @return binding or null if field does not exist
+     */
+    public FieldBinding getBinding(String name)
+    {
+        return bindings.get(name);
+    }
+
+    public FieldBinding getRequiredBinding(String name)
+    {
+        FieldBinding binding = bindings.get(name);
+        if (binding == null)
+            throw new IllegalArgumentException("no such field: " + type.getName() + '.' + name);
+        return binding;
+    }
+
+    public static class FieldBinding
+    {
+        private final Field field;
+        private final FieldAccessor accessor;
+        private final Class<?> type;
+        private final boolean simple;
+        private volatile Class<?> elementType;
+
+        FieldBinding(Field field)
+        {
+            this.field = field;
+            this.accessor = FieldAccessor.of(field);
+            this.type = field.getType();
+            this.simple = ReflectionUtil.isPrimitive(type) || ReflectionUtil.isWrapper(type);
+        }
+
+        public Field getField()
+        {
+            return field;
+        }
+
+        public Class<?> getType()
+        {
+            return type;
+        }
+
+        public FieldAccessor getAccessor()
+        {
+            return accessor;
+        }
+
+        /**
+         * @return true if field is primitive or wrapper and can be converted
+         *         from request parameter directly
+         */
+        public boolean isSimple()
+        {
+            return simple;
+        }
+
+        /**
+         * generic type of collection field, resolved lazily
+         */
+        public Class<?> getElementType() throws Exception
+        {
+            if (elementType == null)
+                elementType = ReflectionUtil.getGenericFieldClassType(field);
+            return elementType;
+        }
+
+        public Object convert(Object value)
+        {
+            return ReflectionUtil.toObject(type, value);
+        }
+
+        public void set(Object target, Object value) throws Exception
+        {
+            ReflectionUtil.set(accessor, target, value);
+        }
+
+    }
+
+}
@@ -0,0 +1,284 @@
+package ir.seam.ui.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * static resource held in memory together with its gzip and deflate forms,
+ * compressed once when loaded and picked per request by Accept-Encoding
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class CachedAsset
+{
+
+    private final String contentType;
+    private final long lastModified;
+    private final byte[] content;
+    private final byte[] gzipContent;
+    private final byte[] deflateContent;
+    private final String hash;
+
+    public CachedAsset(byte[] content, String contentType, long lastModified)
+    {
+        this.content = content;
+        this.contentType = contentType;
+        // http dates have second precision
+        this.lastModified = lastModified - lastModified % 1000;
+        this.gzipContent = smallerOrNull(gzip(content), content);
+        this.deflateContent = smallerOrNull(deflate(content), content);
+        this.hash = hash(content);
+    }
+
+    public static CachedAsset load(URL url, String contentType, long lastModified) throws IOException
+    {
+        InputStream in = null;
+        try
+        {
+            in = url.openStream();
+            return new CachedAsset(IOUtils.toByteArray(in), contentType, lastModified);
+        }
+        finally
+        {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * first 8 bytes of sha-256 of content in hex
+     */
+    private static String hash(byte[] content)
+    {
+        try
+        {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder sb = new StringBuilder(16);
+            for (int i = 0; i < 8; i++)
+            {
+                sb.append(Character.forDigit(digest[i] >> 4 & 0xf, 16)).append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            // every jdk has sha-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] content)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+            GZIPOutputStream out = new GZIPOutputStream(bytes) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            };
+            out.write(content);
+            out.close();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            // can not happen in memory
+            return null;
+        }
+    }
+
+    private static byte[] deflate(byte[] content)
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+            // http deflate coding is zlib format
+            DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater);
+            out.write(content);
+            out.close();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        finally
+        {
+            // close() does not end a deflater it did not create
+            deflater.end();
+        }
+    }
+
+    private static byte[] smallerOrNull(byte[] compressed, byte[] content)
+    {
+        return compressed != null && compressed.length < content.length ? compressed : null;
+    }
+
+    /**
+     * @return gzip, deflate or null for identity
+     */
+    public String selectEncoding(HttpServletRequest request)
+    {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (gzipContent != null && accepts(acceptEncoding, "gzip"))
+            return "gzip";
+        if (deflateContent != null && accepts(acceptEncoding, "deflate"))
+            return "deflate";
+        return null;
+    }
+
+    /**
+     * strong etag of content in given encoding, each encoding is a different
+     * representation so it gets its own tag
+     */
+    public String getETag(String encoding)
+    {
+        return encoding == null ? '"' + hash + '"' : '"' + hash + '-' + encoding + '"';
+    }
+
+    /**
+     * @param ifNoneMatch
+     *            header value, list of etags or *
+     * @return true if one of tags is a representation of this content
+     */
+    public boolean matches(String ifNoneMatch)
+    {
+        for (String item : ifNoneMatch.split(","))
+        {
+            String tag = item.trim();
+            if (tag.equals("*"))
+                return true;
+            // If-None-Match uses weak comparison
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.length() < 2 || tag.charAt(0) != '"' || tag.charAt(tag.length() - 1) != '"')
+                continue;
+            tag = tag.substring(1, tag.length() - 1);
+            int dash = tag.indexOf('-');
+            if (dash != -1)
+                tag = tag.substring(0, dash);
+            if (tag.equals(hash))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * sets ETag, Last-Modified and Vary, needed on 304 responses too
+     */
+    public void setCacheHeaders(HttpServletResponse response, String encoding)
+    {
+        response.setHeader("ETag", getETag(encoding));
+        response.setDateHeader("Last-Modified", lastModified);
+        response.addHeader("Vary", "Accept-Encoding");
+    }
+
+    /**
+     * writes content in given encoding with Content-Encoding and
+     * Content-Length
+     */
+    public void write(HttpServletResponse response, String encoding) throws IOException
+    {
+        byte[] body = content;
+        if ("gzip".equals(encoding))
+            body = gzipContent;
+        else if ("deflate".equals(encoding))
+            body = deflateContent;
+        response.setContentType(contentType);
+        if (encoding != null)
+            response.setHeader("Content-Encoding", encoding);
+        response.setContentLength(body.length);
+        OutputStream out = response.getOutputStream();
+        out.write(body);
+        out.flush();
+    }
+
+    /**
+     * @return true if coding (or *) is listed in Accept-Encoding without q=0
+     */
+    static boolean accepts(String acceptEncoding, String coding)
+    {
+        if (acceptEncoding == null)
+            return false;
+        String header = acceptEncoding.toLowerCase(Locale.ENGLISH);
+        double quality = quality(header, coding);
+        if (quality < 0)
+            quality = quality(header, "*");
+        return quality > 0;
+    }
+
+    /**
+     * @return q value of coding, -1 if it is not listed
+     */
+    private static double quality(String header, String coding)
+    {
+        for (String item : header.split(","))
+        {
+            String[] parts = item.split(";");
+            if (parts[0].trim().equals(coding) == false)
+                continue;
+            for (int i = 1; i < parts.length; i++)
+            {
+                String param = parts[i].trim();
+                if (param.startsWith("q="))
+                {
+                    try
+                    {
+                        return Double.parseDouble(param.substring(2));
+                    }
+                    catch (NumberFormatException e)
+                    {
+                        return 0;
+                    }
+                }
+            }
+            return 1;
+        }
+        return -1;
+    }
+
+    public String getContentType()
+    {
+        return contentType;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    /**
+     * @return content hash, changes whenever content changes
+     */
+    public String getHash()
+    {
+        return hash;
+    }
+
+    public byte[] getContent()
+    {
+        return content;
+    }
+
+    public int getLength()
+    {
+        return content.length;
+    }
+
+}
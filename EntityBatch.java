@@ -0,0 +1,144 @@
+package com.omidbiz;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.jboss.seam.Component;
+import org.jboss.seam.transaction.Transaction;
+import org.jboss.seam.transaction.UserTransaction;
+
+/**
+ * accumulates entities and persists them in chunks, each chunk is flushed in
+ * one go and its entities are detached afterwards so memory stays flat. other
+ * entities of the shared persistence context stay managed. <br />
+ * <b>NOTE</b> : statements are only sent as jdbc batches when
+ * <code>hibernate.jdbc.batch_size</code> (and preferably
+ * <code>hibernate.order_inserts</code>) is set in persistence.xml and the
+ * entity id is not generated by identity column
+ *
+ * <pre>
+ * new RequestProcessor&lt;User&gt;(req) {
+ *     public void process() throws Exception
+ *     {
+ *         EntityBatch&lt;User&gt; batch = new EntityBatch&lt;User&gt;(500);
+ *         batch.addAll(bindList(&quot;users&quot;));
+ *         batch.flush();
+ *     }
+ * }.run();
+ * </pre>
+ *
+ * @author Omid Pourhadi : omidpourhadi [AT] gmail [DOT] com
+ * @param <E>
+ *            : entity
+ */
+public class EntityBatch<E>
+{
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final int batchSize;
+    private final List<E> pending;
+    private long persistedCount;
+
+    public EntityBatch()
+    {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param batchSize
+     *            entities persisted per flush, should match
+     *            hibernate.jdbc.batch_size
+     */
+    public EntityBatch(int batchSize)
+    {
+        if (batchSize < 1)
+        {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        this.batchSize = batchSize;
+        this.pending = new ArrayList<E>(batchSize);
+    }
+
+    public void add(E entity) throws Exception
+    {
+        pending.add(entity);
+        if (pending.size() >= batchSize)
+            flush();
+    }
+
+    public void addAll(Collection<? extends E> entities) throws Exception
+    {
+        for (E entity : entities)
+        {
+            add(entity);
+        }
+    }
+
+    /**
+     * persists pending entities. joins the running transaction if there is
+     * one, otherwise each chunk is committed in its own transaction
+     */
+    public void flush() throws Exception
+    {
+        if (pending.isEmpty())
+            return;
+        UserTransaction userTransaction = Transaction.instance();
+        boolean ownTransaction = userTransaction.isActive() == false;
+        if (ownTransaction)
+            userTransaction.begin();
+        try
+        {
+            EntityManager entityManager = getEntityManager();
+            entityManager.joinTransaction();
+            for (E entity : pending)
+            {
+                entityManager.persist(entity);
+            }
+            entityManager.flush();
+            // persistence context belongs to the caller, only drop own
+            // entities
+            for (E entity : pending)
+            {
+                entityManager.detach(entity);
+            }
+            if (ownTransaction)
+                userTransaction.commit();
+        }
+        catch (Exception e)
+        {
+            if (ownTransaction && userTransaction.isActiveOrMarkedRollback())
+                userTransaction.rollback();
+            throw e;
+        }
+        persistedCount += pending.size();
+        pending.clear();
+    }
+
+    protected EntityManager getEntityManager()
+    {
+        return (EntityManager) Component.getInstance("entityManager");
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * @return number of entities flushed so far
+     */
+    public long getPersistedCount()
+    {
+        return persistedCount;
+    }
+
+}
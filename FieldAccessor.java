@@ -0,0 +1,167 @@
+package com.omidbiz;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * cached getter/setter of a field. uses method handles adapted to
+ * <code>(Object)Object</code> and <code>(Object,Object)void</code>, access is
+ * checked once when the handle is created instead of on every call. falls
+ * back to plain reflection when a handle can not be created (e.g. final
+ * fields)
+ *
+ * @author Omid Pourhadi : omidpourhadi [AT] gmail [DOT] com
+ *
+ */
+public abstract class FieldAccessor
+{
+
+    private static final ConcurrentMap<Field, FieldAccessor> ACCESSORS = new ConcurrentHashMap<Field, FieldAccessor>();
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+    protected final Field field;
+
+    protected FieldAccessor(Field field)
+    {
+        this.field = field;
+    }
+
+    public static FieldAccessor of(Field field)
+    {
+        FieldAccessor accessor = ACCESSORS.get(field);
+        if (accessor == null)
+        {
+            FieldAccessor newAccessor = create(field);
+            accessor = ACCESSORS.putIfAbsent(field, newAccessor);
+            if (accessor == null)
+                accessor = newAccessor;
+        }
+        return accessor;
+    }
+
+    private static FieldAccessor create(Field field)
+    {
+        field.setAccessible(true);
+        if (Modifier.isFinal(field.getModifiers()))
+            return new ReflectionAccessor(field);
+        try
+        {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            MethodHandle getter = lookup.unreflectGetter(field);
+            MethodHandle setter = lookup.unreflectSetter(field);
+            if (Modifier.isStatic(field.getModifiers()))
+            {
+                // ignore target for static fields
+                getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                setter = MethodHandles.dropArguments(setter, 0, Object.class);
+            }
+            return new MethodHandleAccessor(field, getter.asType(GETTER_TYPE), setter.asType(SETTER_TYPE));
+        }
+        catch (IllegalAccessException e)
+        {
+            return new ReflectionAccessor(field);
+        }
+        catch (RuntimeException e)
+        {
+            return new ReflectionAccessor(field);
+        }
+    }
+
+    public Field getField()
+    {
+        return field;
+    }
+
+    public abstract Object get(Object target) throws Exception;
+
+    public abstract void set(Object target, Object value) throws Exception;
+
+    private static class MethodHandleAccessor extends FieldAccessor
+    {
+        private final MethodHandle getter;
+        private final MethodHandle setter;
+
+        MethodHandleAccessor(Field field, MethodHandle getter, MethodHandle setter)
+        {
+            super(field);
+            this.getter = getter;
+            this.setter = setter;
+        }
+
+        @Override
+        public Object get(Object target) throws Exception
+        {
+            try
+            {
+                return (Object) getter.invokeExact(target);
+            }
+            catch (Throwable t)
+            {
+                throw propagate(t);
+            }
+        }
+
+        @Override
+        public void set(Object target, Object value) throws Exception
+        {
+            try
+            {
+                setter.invokeExact(target, value);
+            }
+            catch (ClassCastException e)
+            {
+                // keep the same contract as Field.set
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            catch (NullPointerException e)
+            {
+                // null value for primitive field
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+            catch (Throwable t)
+            {
+                throw propagate(t);
+            }
+        }
+
+        private static Exception propagate(Throwable t)
+        {
+            if (t instanceof Error)
+                throw (Error) t;
+            if (t instanceof Exception)
+                return (Exception) t;
+            return new IllegalStateException(t);
+        }
+
+    }
+
+    private static class ReflectionAccessor extends FieldAccessor
+    {
+
+        ReflectionAccessor(Field field)
+        {
+            super(field);
+        }
+
+        @Override
+        public Object get(Object target) throws Exception
+        {
+            return field.get(target);
+        }
+
+        @Override
+        public void set(Object target, Object value) throws Exception
+        {
+            field.set(target, value);
+        }
+
+    }
+
+}
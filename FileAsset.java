@@ -0,0 +1,247 @@
+package ir.seam.ui.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * large static file served straight from disk with single byte range
+ * support. on tomcat with sendfile enabled the file is handed to the
+ * connector, otherwise it is copied to the response stream by
+ * {@link FileChannel#transferTo}. metadata and the canonical path are read
+ * once when the asset is created
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class FileAsset
+{
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<String, String>();
+
+    static
+    {
+        CONTENT_TYPES.put("js", "text/javascript");
+        CONTENT_TYPES.put("css", "text/css");
+        CONTENT_TYPES.put("map", "application/json");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("woff", "font/woff");
+        CONTENT_TYPES.put("woff2", "font/woff2");
+        CONTENT_TYPES.put("ttf", "font/ttf");
+        CONTENT_TYPES.put("eot", "application/vnd.ms-fontobject");
+    }
+
+    private final File file;
+    private final String path;
+    private final String contentType;
+    private final long length;
+    private final long lastModified;
+    private final String etag;
+
+    public FileAsset(File file)
+    {
+        this.file = file;
+        this.path = canonicalPath(file);
+        this.contentType = guessContentType(file.getName());
+        this.length = file.length();
+        long modified = file.lastModified();
+        this.lastModified = modified - modified % 1000;
+        // no content hash for large files, size and time identify the version
+        this.etag = "W/\"" + Long.toHexString(length) + '-' + Long.toHexString(modified) + '"';
+    }
+
+    private static String canonicalPath(File file)
+    {
+        try
+        {
+            return file.getCanonicalPath();
+        }
+        catch (IOException e)
+        {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static String guessContentType(String fileName)
+    {
+        int dot = fileName.lastIndexOf('.');
+        String contentType = dot == -1 ? null : CONTENT_TYPES.get(fileName.substring(dot + 1).toLowerCase(Locale.ENGLISH));
+        if (contentType == null)
+            contentType = URLConnection.guessContentTypeFromName(fileName);
+        return contentType == null ? "application/octet-stream" : contentType;
+    }
+
+    public void serve(HttpServletRequest request, HttpServletResponse response, String cacheControl) throws IOException
+    {
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Accept-Ranges", "bytes");
+        response.setHeader("Cache-Control", cacheControl);
+        if (isNotModified(request))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        long start = 0;
+        long count = length;
+        String range = request.getHeader("Range");
+        if (range != null && isIfRangeSatisfied(request))
+        {
+            long[] bounds = parseRange(range, length);
+            if (bounds != null && bounds.length == 0)
+            {
+                response.setHeader("Content-Range", "bytes */" + length);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (bounds != null)
+            {
+                start = bounds[0];
+                count = bounds[1] - bounds[0] + 1;
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + bounds[0] + '-' + bounds[1] + '/' + length);
+            }
+        }
+        response.setContentType(contentType);
+        response.setHeader("Content-Length", String.valueOf(count));
+        transfer(request, response, start, count);
+    }
+
+    private boolean isNotModified(HttpServletRequest request)
+    {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+        {
+            for (String tag : ifNoneMatch.split(","))
+            {
+                String trimmed = tag.trim();
+                if (trimmed.equals("*") || trimmed.equals(etag) || ("W/" + trimmed).equals(etag))
+                    return true;
+            }
+            return false;
+        }
+        long requestModifiedSince = request.getDateHeader("If-Modified-Since");
+        return requestModifiedSince != -1 && lastModified <= requestModifiedSince;
+    }
+
+    /**
+     * range is only honored if If-Range names the current version, weak tags
+     * never match so only the date form can succeed
+     */
+    private boolean isIfRangeSatisfied(HttpServletRequest request)
+    {
+        String ifRange = request.getHeader("If-Range");
+        if (ifRange == null)
+            return true;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+            return false;
+        long date = request.getDateHeader("If-Range");
+        return date != -1 && lastModified <= date;
+    }
+
+    /**
+     * @return first and last byte of a single range, empty array if range is
+     *         not satisfiable, null if header is malformed or asks for
+     *         several ranges so whole file is sent
+     */
+    static long[] parseRange(String range, long length)
+    {
+        if (range.startsWith("bytes=") == false || range.indexOf(',') != -1)
+            return null;
+        String spec = range.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1)
+            return null;
+        try
+        {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.length() == 0)
+            {
+                // suffix range, last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0)
+                    return new long[0];
+                return new long[] { Math.max(0, length - suffix), length - 1 };
+            }
+            long start = Long.parseLong(first);
+            long end = last.length() == 0 ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start >= length)
+                return new long[0];
+            if (end < start)
+                return null;
+            return new long[] { start, end };
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    private void transfer(HttpServletRequest request, HttpServletResponse response, long start, long count) throws IOException
+    {
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT)))
+        {
+            // connector writes file with sendfile after servlet returns
+            request.setAttribute(SENDFILE_FILENAME, path);
+            request.setAttribute(SENDFILE_START, Long.valueOf(start));
+            request.setAttribute(SENDFILE_END, Long.valueOf(start + count));
+            return;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            FileChannel channel = in.getChannel();
+            OutputStream outputStream = response.getOutputStream();
+            WritableByteChannel out = Channels.newChannel(outputStream);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0)
+            {
+                long transferred = channel.transferTo(position, remaining, out);
+                if (transferred <= 0)
+                    break;
+                position += transferred;
+                remaining -= transferred;
+            }
+            outputStream.flush();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public long getLength()
+    {
+        return length;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+}
@@ -0,0 +1,417 @@
+package com.omidbiz;
+
+import static org.jboss.seam.ScopeType.APPLICATION;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jboss.seam.annotations.Destroy;
+import org.jboss.seam.annotations.Name;
+import org.jboss.seam.annotations.Scope;
+import org.jboss.seam.annotations.Startup;
+import org.jboss.seam.annotations.intercept.BypassInterceptors;
+import org.jboss.seam.contexts.Lifecycle;
+import org.jboss.seam.transaction.Transaction;
+import org.jboss.seam.transaction.UserTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * runs small write units on a single writer thread and commits the units
+ * that arrive within a short window in one transaction, one commit is paid
+ * for many requests. each caller gets its own result, if the group
+ * transaction fails the units are reset and executed again one by one, each
+ * in its own call with a new persistence context, so only the faulty unit
+ * fails. <br />
+ * <b>NOTE</b> : units run outside of the http request, they should only use
+ * state they captured and {@link WorkUnit#reset()} must undo what a rolled
+ * back execution left on that state (e.g. generated ids)
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class GroupCommitWriter
+{
+
+    protected final static Logger logger = LoggerFactory.getLogger(GroupCommitWriter.class);
+
+    public static final long DEFAULT_WINDOW_MILLIS = 5;
+    public static final int DEFAULT_MAX_UNITS = 64;
+    private static final long SHUTDOWN_WAIT_MILLIS = 10000;
+
+    private static GroupCommitWriter instance;
+
+    private final BlockingQueue<PendingUnit> queue = new LinkedBlockingQueue<PendingUnit>();
+    private final long windowNanos;
+    private final int maxUnits;
+    private final Thread writer;
+    private final Object lock = new Object();
+    private volatile boolean running = true;
+
+    private final AtomicLong groupCount = new AtomicLong();
+    private final AtomicLong unitCount = new AtomicLong();
+    private final AtomicLong splitCount = new AtomicLong();
+
+    public interface WorkUnit
+    {
+        public void execute() throws Exception;
+
+        /**
+         * called in the call of the next execution, before a unit of a rolled
+         * back group is executed again
+         */
+        public void reset() throws Exception;
+    }
+
+    public GroupCommitWriter(long windowMillis, int maxUnits)
+    {
+        if (windowMillis < 0 || maxUnits < 1)
+        {
+            throw new IllegalArgumentException("window must not be negative and max units must be positive");
+        }
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.maxUnits = maxUnits;
+        this.writer = new Thread(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                drain();
+            }
+        }, "group-commit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public static synchronized GroupCommitWriter instance()
+    {
+        if (instance == null)
+            instance = new GroupCommitWriter(DEFAULT_WINDOW_MILLIS, DEFAULT_MAX_UNITS);
+        return instance;
+    }
+
+    /**
+     * replaces the shared writer, the previous one is shut down
+     */
+    public static synchronized void configure(long windowMillis, int maxUnits)
+    {
+        if (instance != null)
+            instance.shutdown();
+        instance = new GroupCommitWriter(windowMillis, maxUnits);
+    }
+
+    /**
+     * shuts the shared writer down, called when the application is undeployed
+     */
+    public static synchronized void shutdownInstance()
+    {
+        if (instance != null)
+            instance.shutdown();
+        instance = null;
+    }
+
+    /**
+     * @throws IllegalStateException
+     *             if writer is shut down
+     */
+    public Future<Void> submit(WorkUnit unit)
+    {
+        PendingUnit pending = new PendingUnit(unit);
+        synchronized (lock)
+        {
+            if (running == false)
+            {
+                throw new IllegalStateException("group commit writer is shut down");
+            }
+            queue.add(pending);
+        }
+        return pending;
+    }
+
+    /**
+     * stops accepting units and waits for the group being committed, units
+     * still queued fail
+     */
+    public void shutdown()
+    {
+        synchronized (lock)
+        {
+            running = false;
+        }
+        if (Thread.currentThread() == writer)
+            return;
+        try
+        {
+            writer.join(SHUTDOWN_WAIT_MILLIS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain()
+    {
+        try
+        {
+            while (running)
+            {
+                PendingUnit first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null)
+                    continue;
+                List<PendingUnit> group = new ArrayList<PendingUnit>();
+                group.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (group.size() < maxUnits)
+                {
+                    long remaining = deadline - System.nanoTime();
+                    PendingUnit next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null)
+                        break;
+                    group.add(next);
+                }
+                commit(group);
+            }
+            failRemaining(new IllegalStateException("group commit writer is shut down"));
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            failRemaining(e);
+        }
+    }
+
+    private void failRemaining(Exception e)
+    {
+        List<PendingUnit> rest = new ArrayList<PendingUnit>();
+        queue.drainTo(rest);
+        for (PendingUnit pending : rest)
+            pending.fail(e);
+    }
+
+    private void commit(List<PendingUnit> group)
+    {
+        // callers which timed out cancelled their units
+        for (int i = group.size() - 1; i >= 0; i--)
+        {
+            if (group.get(i).isCancelled())
+                group.remove(i);
+        }
+        if (group.isEmpty())
+            return;
+        groupCount.incrementAndGet();
+        unitCount.addAndGet(group.size());
+        if (group.size() > 1)
+        {
+            try
+            {
+                executeInTransaction(group, false);
+                for (PendingUnit pending : group)
+                    pending.succeed();
+                return;
+            }
+            catch (Exception e)
+            {
+                splitCount.incrementAndGet();
+                logger.warn("group commit of " + group.size() + " units failed, executing units one by one : " + e.getMessage());
+            }
+        }
+        boolean reset = group.size() > 1;
+        for (PendingUnit pending : group)
+        {
+            try
+            {
+                executeInTransaction(Collections.singletonList(pending), reset);
+                pending.succeed();
+            }
+            catch (Exception e)
+            {
+                pending.fail(e);
+            }
+        }
+    }
+
+    /**
+     * every call has its own event and conversation context, so seam managed
+     * persistence contexts are new and nothing is left from a failed call
+     */
+    private void executeInTransaction(List<PendingUnit> group, boolean reset) throws Exception
+    {
+        Lifecycle.beginCall();
+        try
+        {
+            if (reset)
+            {
+                for (PendingUnit pending : group)
+                    pending.unit.reset();
+            }
+            UserTransaction userTransaction = Transaction.instance();
+            userTransaction.begin();
+            try
+            {
+                for (PendingUnit pending : group)
+                    pending.unit.execute();
+                userTransaction.commit();
+            }
+            catch (Exception e)
+            {
+                rollback(userTransaction);
+                throw e;
+            }
+        }
+        finally
+        {
+            Lifecycle.endCall();
+        }
+    }
+
+    private static void rollback(UserTransaction userTransaction)
+    {
+        try
+        {
+            if (userTransaction.isActiveOrMarkedRollback())
+                userTransaction.rollback();
+        }
+        catch (Exception e)
+        {
+            logger.info(e.getMessage());
+        }
+    }
+
+    /**
+     * @return number of transactions started for groups
+     */
+    public long getGroupCount()
+    {
+        return groupCount.get();
+    }
+
+    public long getUnitCount()
+    {
+        return unitCount.get();
+    }
+
+    /**
+     * @return number of groups that failed and were executed unit by unit
+     */
+    public long getSplitCount()
+    {
+        return splitCount.get();
+    }
+
+    /**
+     * shuts the shared writer down with the application
+     */
+    @Name("com.omidbiz.groupCommitWriterShutdown")
+    @Scope(APPLICATION)
+    @Startup
+    @BypassInterceptors
+    public static class Shutdown
+    {
+        @Destroy
+        public void destroy()
+        {
+            shutdownInstance();
+        }
+    }
+
+    /**
+     * completion of a submitted unit, the writer thread executes the unit and
+     * reports the outcome here
+     */
+    private static class PendingUnit implements Future<Void>
+    {
+        private static final int PENDING = 0;
+        private static final int SUCCEEDED = 1;
+        private static final int FAILED = 2;
+        private static final int CANCELLED = 3;
+
+        private final WorkUnit unit;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile Throwable failure;
+
+        PendingUnit(WorkUnit unit)
+        {
+            this.unit = unit;
+        }
+
+        void succeed()
+        {
+            complete(SUCCEEDED);
+        }
+
+        void fail(Throwable t)
+        {
+            failure = t;
+            complete(FAILED);
+        }
+
+        private boolean complete(int outcome)
+        {
+            if (state.compareAndSet(PENDING, outcome) == false)
+                return false;
+            done.countDown();
+            return true;
+        }
+
+        /**
+         * a unit the writer already took keeps running, only its outcome is
+         * dropped
+         */
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            return complete(CANCELLED);
+        }
+
+        @Override
+        public boolean isCancelled()
+        {
+            return state.get() == CANCELLED;
+        }
+
+        @Override
+        public boolean isDone()
+        {
+            return state.get() != PENDING;
+        }
+
+        @Override
+        public Void get() throws InterruptedException, ExecutionException
+        {
+            done.await();
+            return outcome();
+        }
+
+        @Override
+        public Void get(long timeout, TimeUnit timeUnit) throws InterruptedException, ExecutionException, TimeoutException
+        {
+            if (done.await(timeout, timeUnit) == false)
+                throw new TimeoutException();
+            return outcome();
+        }
+
+        private Void outcome() throws ExecutionException
+        {
+            int outcome = state.get();
+            if (outcome == CANCELLED)
+                throw new CancellationException();
+            if (outcome == FAILED)
+                throw new ExecutionException(failure);
+            return null;
+        }
+    }
+
+}
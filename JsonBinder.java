@@ -0,0 +1,119 @@
+package com.omidbiz;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.omidbiz.BindingPlan.FieldBinding;
+import com.omidbiz.JsonReader.Token;
+
+/**
+ * binds a json body into entities while it is read, field metadata comes from
+ * {@link BindingPlan}. nested objects and collections are bound the same way,
+ * a number or string given for a {@link BasePO} relation is taken as its id
+ *
+ * <pre>
+ * {"username" : "omid", "city" : {"id" : 1}, "roles" : [{"rolename" : "admin"}]}
+ * </pre>
+ *
+ * @author Omid Pourhadi : omidpourhadi [AT] gmail [DOT] com
+ *
+ */
+public final class JsonBinder
+{
+
+    private JsonBinder()
+    {
+    }
+
+    public static <E> E bind(Reader in, Class<E> type) throws Exception
+    {
+        E instance = type.newInstance();
+        bindInto(new JsonReader(in), instance);
+        return instance;
+    }
+
+    /**
+     * reads one json object into target, unknown members are skipped
+     */
+    public static void bindInto(JsonReader reader, Object target) throws Exception
+    {
+        BindingPlan plan = BindingPlan.of(target.getClass());
+        reader.beginObject();
+        while (reader.hasNext())
+        {
+            String name = reader.nextName();
+            FieldBinding binding = plan.getBinding(name);
+            if (binding == null)
+            {
+                reader.skipValue();
+                continue;
+            }
+            Object value = readValue(reader, binding.getType(), binding);
+            if (value != null || binding.getType().isPrimitive() == false)
+                binding.set(target, value);
+        }
+        reader.endObject();
+    }
+
+    /**
+     * reads a json array of objects, one entity per element
+     */
+    public static <E> List<E> bindList(JsonReader reader, Class<E> type) throws Exception
+    {
+        List<E> list = new ArrayList<E>();
+        reader.beginArray();
+        while (reader.hasNext())
+        {
+            E instance = type.newInstance();
+            bindInto(reader, instance);
+            list.add(instance);
+        }
+        reader.endArray();
+        return list;
+    }
+
+    private static Object readValue(JsonReader reader, Class<?> type, FieldBinding binding) throws Exception
+    {
+        Token token = reader.peek();
+        if (token == Token.NULL)
+        {
+            reader.nextNull();
+            return null;
+        }
+        if (ReflectionUtil.isPrimitive(type) || ReflectionUtil.isWrapper(type))
+            return ReflectionUtil.toObject(type, reader.nextScalar());
+        if (type.isEnum())
+            return Enum.valueOf((Class<Enum>) type, String.valueOf(reader.nextScalar()));
+        if (Collection.class.isAssignableFrom(type))
+        {
+            if (binding == null)
+                throw new IllegalArgumentException("nested collections are not supported");
+            Collection collection = ReflectionUtil.instantiateCollection(type);
+            Class<?> elementType = binding.getElementType();
+            reader.beginArray();
+            while (reader.hasNext())
+            {
+                collection.add(readValue(reader, elementType, null));
+            }
+            reader.endArray();
+            return collection;
+        }
+        Object nestedInstance = type.newInstance();
+        if (token == Token.BEGIN_OBJECT)
+        {
+            bindInto(reader, nestedInstance);
+            return nestedInstance;
+        }
+        Object scalar = reader.nextScalar();
+        if (nestedInstance instanceof BasePO)
+        {
+            // relation given by id
+            ((BasePO) nestedInstance).setId(Long.valueOf(String.valueOf(scalar)));
+            return nestedInstance;
+        }
+        throw new IllegalArgumentException("can not bind " + scalar + " to " + type.getName());
+    }
+
+}
@@ -0,0 +1,386 @@
+package com.omidbiz;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * pull style json tokenizer, reads straight from the request reader without
+ * building a tree. the nesting is tracked so misplaced commas, colons and
+ * missing separators are rejected
+ *
+ * <pre>
+ * JsonReader reader = new JsonReader(request.getReader());
+ * reader.beginObject();
+ * while (reader.hasNext())
+ * {
+ *     String name = reader.nextName();
+ *     Object value = reader.nextScalar();
+ * }
+ * reader.endObject();
+ * </pre>
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class JsonReader
+{
+
+    public enum Token
+    {
+        BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT;
+    }
+
+    private final Reader in;
+    private final char[] buffer = new char[4096];
+    private int pos;
+    private int limit;
+
+    // scopes of the nesting stack
+    private static final int EMPTY_DOCUMENT = 0;
+    private static final int NONEMPTY_DOCUMENT = 1;
+    private static final int EMPTY_OBJECT = 2;
+    private static final int DANGLING_NAME = 3;
+    private static final int NONEMPTY_OBJECT = 4;
+    private static final int EMPTY_ARRAY = 5;
+    private static final int NONEMPTY_ARRAY = 6;
+
+    private int[] stack = new int[32];
+    private int stackSize = 1;
+
+    private Token peeked;
+    private String peekedValue;
+    private final StringBuilder text = new StringBuilder();
+
+    public JsonReader(Reader in)
+    {
+        this.in = in;
+    }
+
+    public Token peek() throws IOException
+    {
+        if (peeked == null)
+            readToken();
+        return peeked;
+    }
+
+    public void beginObject() throws IOException
+    {
+        expect(Token.BEGIN_OBJECT);
+    }
+
+    public void endObject() throws IOException
+    {
+        expect(Token.END_OBJECT);
+    }
+
+    public void beginArray() throws IOException
+    {
+        expect(Token.BEGIN_ARRAY);
+    }
+
+    public void endArray() throws IOException
+    {
+        expect(Token.END_ARRAY);
+    }
+
+    /**
+     * @return true if current object or array has more elements
+     */
+    public boolean hasNext() throws IOException
+    {
+        Token token = peek();
+        return token != Token.END_OBJECT && token != Token.END_ARRAY && token != Token.END_DOCUMENT;
+    }
+
+    public String nextName() throws IOException
+    {
+        return expect(Token.NAME);
+    }
+
+    public void nextNull() throws IOException
+    {
+        expect(Token.NULL);
+    }
+
+    /**
+     * @return string, number text (converted later to the field type),
+     *         {@link Boolean} or null
+     */
+    public Object nextScalar() throws IOException
+    {
+        Token token = peek();
+        switch (token)
+        {
+        case STRING:
+        case NUMBER:
+            return consume();
+        case BOOLEAN:
+            return Boolean.valueOf(consume());
+        case NULL:
+            consume();
+            return null;
+        default:
+            throw new IOException("expected value but was " + token);
+        }
+    }
+
+    /**
+     * skips current value with all of its nested values
+     */
+    public void skipValue() throws IOException
+    {
+        int depth = 0;
+        do
+        {
+            Token token = peek();
+            if (token == Token.END_DOCUMENT)
+                throw new IOException("unexpected end of json");
+            if (token == Token.BEGIN_OBJECT || token == Token.BEGIN_ARRAY)
+                depth++;
+            else if (token == Token.END_OBJECT || token == Token.END_ARRAY)
+                depth--;
+            consume();
+        }
+        while (depth > 0);
+    }
+
+    private String expect(Token expected) throws IOException
+    {
+        Token token = peek();
+        if (token != expected)
+            throw new IOException("expected " + expected + " but was " + token);
+        return consume();
+    }
+
+    private String consume()
+    {
+        String value = peekedValue;
+        peeked = null;
+        peekedValue = null;
+        return value;
+    }
+
+    private void readToken() throws IOException
+    {
+        int scope = stack[stackSize - 1];
+        int c = nextSignificant();
+        switch (scope)
+        {
+        case EMPTY_ARRAY:
+        case NONEMPTY_ARRAY:
+            if (c == ']')
+            {
+                stackSize--;
+                peeked = Token.END_ARRAY;
+                return;
+            }
+            if (scope == NONEMPTY_ARRAY)
+            {
+                if (c != ',')
+                    throw syntaxError("expected , or ]", c);
+                c = nextSignificant();
+            }
+            stack[stackSize - 1] = NONEMPTY_ARRAY;
+            readValue(c);
+            return;
+        case EMPTY_OBJECT:
+        case NONEMPTY_OBJECT:
+            if (c == '}')
+            {
+                stackSize--;
+                peeked = Token.END_OBJECT;
+                return;
+            }
+            if (scope == NONEMPTY_OBJECT)
+            {
+                if (c != ',')
+                    throw syntaxError("expected , or }", c);
+                c = nextSignificant();
+            }
+            if (c != '"')
+                throw syntaxError("expected member name", c);
+            peekedValue = readString();
+            if (nextSignificant() != ':')
+                throw new IOException("expected : after member name " + peekedValue);
+            stack[stackSize - 1] = DANGLING_NAME;
+            peeked = Token.NAME;
+            return;
+        case DANGLING_NAME:
+            stack[stackSize - 1] = NONEMPTY_OBJECT;
+            readValue(c);
+            return;
+        case EMPTY_DOCUMENT:
+            stack[stackSize - 1] = NONEMPTY_DOCUMENT;
+            readValue(c);
+            return;
+        default:
+            if (c != -1)
+                throw syntaxError("unexpected data after json value", c);
+            peeked = Token.END_DOCUMENT;
+        }
+    }
+
+    private void readValue(int c) throws IOException
+    {
+        switch (c)
+        {
+        case -1:
+            throw new IOException("unexpected end of json");
+        case '{':
+            push(EMPTY_OBJECT);
+            peeked = Token.BEGIN_OBJECT;
+            return;
+        case '[':
+            push(EMPTY_ARRAY);
+            peeked = Token.BEGIN_ARRAY;
+            return;
+        case '"':
+            peekedValue = readString();
+            peeked = Token.STRING;
+            return;
+        case ',':
+        case ':':
+        case '}':
+        case ']':
+            throw syntaxError("expected value", c);
+        default:
+            String literal = readLiteral((char) c);
+            if ("true".equals(literal) || "false".equals(literal))
+            {
+                peeked = Token.BOOLEAN;
+                peekedValue = literal;
+            }
+            else if ("null".equals(literal))
+            {
+                peeked = Token.NULL;
+            }
+            else if (c == '-' || (c >= '0' && c <= '9'))
+            {
+                peeked = Token.NUMBER;
+                peekedValue = literal;
+            }
+            else
+            {
+                throw new IOException("unexpected json literal " + literal);
+            }
+        }
+    }
+
+    private void push(int scope)
+    {
+        if (stackSize == stack.length)
+        {
+            int[] newStack = new int[stackSize * 2];
+            System.arraycopy(stack, 0, newStack, 0, stackSize);
+            stack = newStack;
+        }
+        stack[stackSize++] = scope;
+    }
+
+    private static IOException syntaxError(String message, int c)
+    {
+        return new IOException(message + " but was " + (c == -1 ? "end of json" : String.valueOf((char) c)));
+    }
+
+    /**
+     * @return next char skipping white spaces, -1 at end
+     */
+    private int nextSignificant() throws IOException
+    {
+        while (true)
+        {
+            if (pos == limit && fill() == false)
+                return -1;
+            char c = buffer[pos++];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+                return c;
+        }
+    }
+
+    private boolean fill() throws IOException
+    {
+        int read = in.read(buffer, 0, buffer.length);
+        pos = 0;
+        limit = read > 0 ? read : 0;
+        return read > 0;
+    }
+
+    private int read() throws IOException
+    {
+        if (pos == limit && fill() == false)
+            throw new IOException("unexpected end of json");
+        return buffer[pos++];
+    }
+
+    private String readString() throws IOException
+    {
+        text.setLength(0);
+        while (true)
+        {
+            int c = read();
+            if (c == '"')
+                return text.toString();
+            if (c != '\\')
+            {
+                text.append((char) c);
+                continue;
+            }
+            c = read();
+            switch (c)
+            {
+            case 'b':
+                text.append('\b');
+                break;
+            case 'f':
+                text.append('\f');
+                break;
+            case 'n':
+                text.append('\n');
+                break;
+            case 'r':
+                text.append('\r');
+                break;
+            case 't':
+                text.append('\t');
+                break;
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++)
+                {
+                    int digit = Character.digit(read(), 16);
+                    if (digit == -1)
+                        throw new IOException("malformed unicode escape");
+                    code = (code << 4) + digit;
+                }
+                text.append((char) code);
+                break;
+            default:
+                // \" \\ \/
+                text.append((char) c);
+            }
+        }
+    }
+
+    private String readLiteral(char first) throws IOException
+    {
+        text.setLength(0);
+        text.append(first);
+        while (true)
+        {
+            if (pos == limit && fill() == false)
+                break;
+            char c = buffer[pos];
+            if (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')
+            {
+                text.append(c);
+                pos++;
+            }
+            else
+            {
+                break;
+            }
+        }
+        return text.toString();
+    }
+
+}
@@ -14,7 +14,6 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
@@ -22,8 +21,6 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
 
-import javax.persistence.AttributeOverride;
-import javax.persistence.AttributeOverrides;
 import javax.persistence.Column;
 import javax.persistence.JoinColumn;
 import javax.persistence.Transient;
@@ -106,11 +103,22 @@ public class ReflectionUtil
             throw new RuntimeException("unknown type");
     }
 
+    public static Object get(Field field, Object target) throws Exception
+    {
+        return FieldAccessor.of(field).get(target);
+    }
+
     public static void set(Field field, Object target, Object value) throws Exception
     {
+        set(FieldAccessor.of(field), target, value);
+    }
+
+    public static void set(FieldAccessor accessor, Object target, Object value) throws Exception
+    {
+        Field field = accessor.getField();
         try
         {
-            field.set(target, value);
+            accessor.set(target, value);
         }
         catch (IllegalArgumentException iae)
         {
@@ -273,7 +281,11 @@ public class ReflectionUtil
                 return null;
         }
         if (Boolean.class == clazz || boolean.class == clazz)
+        {
+            if (value instanceof String)
+                return Boolean.valueOf((String) value);
             return (Boolean) value;
+        }
         if (Date.class == clazz)
         {
             // TODO: check for shamsi with anootation on model
@@ -330,68 +342,9 @@ public class ReflectionUtil
     {
         try
         {
-            List<E> instanceList = new ArrayList<E>();
             if (queryResult != null)
             {
-                //
-                List<Property> properties = getProperties(clz);
-                //
-                // Map<String, String> maps = Collections.synchronizedMap(new
-                // HashMap<String, String>());
-                Map<String, String> maps = new HashMap<String, String>();
-                if (clz.isAnnotationPresent(AttributeOverrides.class))
-                {
-                    findRealColumnWithAttributeOverrides(clz, maps);
-                }
-                if (clz.isAnnotationPresent(AttributeOverride.class))
-                {
-                    AttributeOverride annotation = clz.getAnnotation(AttributeOverride.class);
-                    findRealColumnWithAttributeOverride(annotation, maps);
-                }
-                //
-                for (Map<String, Object> dbRecord : queryResult)
-                {
-
-                    E instance = clz.newInstance();
-                    for (Property prop : properties)
-                    {
-                        String columnName = prop.getColumnName();
-                        if (maps.isEmpty() == false)
-                        {
-                            // do we need to check for every iteration ?
-                            columnName = maps.get(columnName) == null ? columnName : maps.get(columnName);
-                        }
-                        Object recordValue = dbRecord.get(columnName);
-                        Field field = getField(clz, prop.getFieldName());
-                        if (field != null && recordValue != null)
-                        {
-                            field.setAccessible(true);
-                            if (isPrimitive(field.getType()) || isWrapper(field.getType()))
-                            {
-                                Object val = toObject(field.getType(), recordValue);
-                                set(field, instance, val);
-                            }
-                            else if (field.getType().isEnum())
-                            {
-                                Enum enVal = Enum.valueOf((Class<Enum>) field.getType(), String.valueOf(recordValue));
-                                set(field, instance, enVal);
-                            }
-                            else
-                            {
-                                // field is relational entity
-                                Object entityInstance = field.getType().newInstance();
-                                if (entityInstance instanceof BasePO)
-                                {
-                                    BasePO po = (BasePO) entityInstance;
-                                    po.setId((Long) recordValue);
-                                    set(field, instance, entityInstance);
-                                }
-                            }
-                        }
-                    }
-                    instanceList.add(instance);
-                }
-                return instanceList;
+                return RowMapper.of(clz).mapRows(queryResult);
             }
         }
         catch (Exception e)
@@ -401,27 +354,28 @@ public class ReflectionUtil
         return null;
     }
 
-    private static Map<String, String> findRealColumnWithAttributeOverride(AttributeOverride attributeOverride, Map<String, String> maps)
-    {
-
-        String atrrName = attributeOverride.name();
-        Column column = attributeOverride.column();
-        maps.put(atrrName, column.name());
-        return maps;
-    }
-
-    private static Map<String, String> findRealColumnWithAttributeOverrides(Class<?> clz, Map<String, String> maps)
+    /**
+     * maps compact query result (column labels plus one array per row)
+     * 
+     * @param columnNames
+     * @param rows
+     * @param clz
+     * @return
+     */
+    public static <E> List<E> entityQueryToObject(String[] columnNames, List<Object[]> rows, Class<E> clz)
     {
-        if (clz.isAnnotationPresent(AttributeOverrides.class))
+        try
         {
-            AttributeOverrides annotation = clz.getAnnotation(AttributeOverrides.class);
-            AttributeOverride[] value = annotation.value();
-            for (int i = 0; i < value.length; i++)
+            if (rows != null)
             {
-                findRealColumnWithAttributeOverride(value[i], maps);
+                return RowMapper.of(clz).bind(columnNames).mapRows(rows);
             }
         }
-        return maps;
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+        return null;
     }
 
     /**
@@ -0,0 +1,202 @@
+package com.omidbiz;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * executors for {@link AsyncRequestProcessor}. on a jdk with virtual threads
+ * each request gets its own virtual thread and a semaphore caps how many run
+ * at once, so the connection pool is not exhausted. the virtual thread api is
+ * looked up by reflection so the code still runs on older jdks
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public final class RequestExecutors
+{
+
+    private static final Method NEW_VIRTUAL_THREAD_EXECUTOR = findVirtualThreadFactoryMethod();
+
+    private RequestExecutors()
+    {
+    }
+
+    private static Method findVirtualThreadFactoryMethod()
+    {
+        try
+        {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        }
+        catch (NoSuchMethodException e)
+        {
+            return null;
+        }
+    }
+
+    public static boolean isVirtualThreadSupported()
+    {
+        return NEW_VIRTUAL_THREAD_EXECUTOR != null;
+    }
+
+    /**
+     * @return one virtual thread per task executor, null if jdk does not
+     *         support virtual threads
+     */
+    public static ExecutorService newVirtualThreadExecutor()
+    {
+        if (NEW_VIRTUAL_THREAD_EXECUTOR == null)
+            return null;
+        try
+        {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_EXECUTOR.invoke(null);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * fixed platform thread pool rejecting tasks when queue is full
+     */
+    public static ExecutorService newBoundedExecutor(int threads, int queueDepth)
+    {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueDepth),
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "async-request-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * virtual threads capped by a semaphore, falls back to
+     * {@link #newBoundedExecutor(int, int)} when virtual threads are not
+     * available. <br />
+     * <b>NOTE</b> : jdbc drivers blocking inside synchronized blocks pin the
+     * carrier thread on jdk before 24, keep maxConcurrent near the connection
+     * pool size
+     *
+     * @param maxConcurrent
+     *            tasks running at once
+     * @param maxWaiting
+     *            tasks waiting for a permit before new ones are rejected
+     */
+    public static ExecutorService newCappedExecutor(int maxConcurrent, int maxWaiting)
+    {
+        ExecutorService virtualThreadExecutor = newVirtualThreadExecutor();
+        if (virtualThreadExecutor == null)
+            return newBoundedExecutor(maxConcurrent, maxWaiting);
+        return new CappedExecutor(virtualThreadExecutor, maxConcurrent, maxWaiting);
+    }
+
+    private static class CappedExecutor extends AbstractExecutorService
+    {
+        private final ExecutorService delegate;
+        private final Semaphore permits;
+        private final int maxAdmitted;
+        private final AtomicInteger admitted = new AtomicInteger();
+
+        CappedExecutor(ExecutorService delegate, int maxConcurrent, int maxWaiting)
+        {
+            if (maxConcurrent < 1 || maxWaiting < 0)
+            {
+                throw new IllegalArgumentException("max concurrent must be positive and max waiting must not be negative");
+            }
+            this.delegate = delegate;
+            this.permits = new Semaphore(maxConcurrent, true);
+            this.maxAdmitted = maxConcurrent + maxWaiting;
+        }
+
+        @Override
+        public void execute(final Runnable command)
+        {
+            if (admitted.incrementAndGet() > maxAdmitted)
+            {
+                admitted.decrementAndGet();
+                throw new RejectedExecutionException("too many requests waiting");
+            }
+            try
+            {
+                delegate.execute(new Runnable() {
+
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            permits.acquire();
+                        }
+                        catch (InterruptedException e)
+                        {
+                            admitted.decrementAndGet();
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        try
+                        {
+                            command.run();
+                        }
+                        finally
+                        {
+                            permits.release();
+                            admitted.decrementAndGet();
+                        }
+                    }
+                });
+            }
+            catch (RejectedExecutionException e)
+            {
+                admitted.decrementAndGet();
+                throw e;
+            }
+        }
+
+        @Override
+        public void shutdown()
+        {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow()
+        {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown()
+        {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated()
+        {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException
+        {
+            return delegate.awaitTermination(timeout, unit);
+        }
+    }
+
+}
@@ -1,20 +1,29 @@
 package com.omidbiz;
 
-import java.lang.reflect.Field;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
+import com.omidbiz.BindingPlan.FieldBinding;
+import com.omidbiz.JsonReader.Token;
+
 /**
  * @author Omid Pourhadi : omidpourhadi [AT] gmail [DOT] com <b>NOTE</b> : use
  *         in Seam ContextualHttpServletRequest
@@ -24,7 +33,14 @@ import javax.servlet.http.HttpServletRequest;
 public abstract class RequestProcessor<E> extends TransactionalContextualHttpServletRequest
 {
 
+    private static final Pattern INDEX_PATTERN = Pattern.compile("\\[(\\d+)\\]");
+
     protected E instance;
+    private List<E> instances = Collections.emptyList();
+    /**
+     * json body is kept so entities can be bound again for a retry
+     */
+    private String jsonBody;
     private Class<E> entityClass;
     HttpServletRequest request;
 
@@ -90,62 +106,58 @@ public abstract class RequestProcessor<E> extends TransactionalContextualHttpSer
 
     public void processRequest()
     {
+        if (isJsonRequest())
+        {
+            processJsonRequest();
+            return;
+        }
         try
         {
-            List<Field> fields = ReflectionUtil.getFields(entityClass);
+            BindingPlan plan = BindingPlan.of(entityClass);
             Map<String, String[]> parameterMap = request.getParameterMap();
-            Object nestedInstance = null;
+            Map<String, Object> nestedInstances = new HashMap<String, Object>();
             HashMap<String, Object> nestedParams = new HashMap<String, Object>();
             for (Map.Entry<String, String[]> param : parameterMap.entrySet())
             {
                 String key = param.getKey();
-                if (key.indexOf(".") > 0 && key.indexOf("[") < 1)
+                int dotIndex = key.indexOf(".");
+                int bracketIndex = key.indexOf("[");
+                if (dotIndex > 0 && bracketIndex < 1)
                 {
                     // nested object model.id
-                    String nestedFiledName = key.substring(0, key.indexOf(".")); // model
-                    String nestedPropertyName = key.substring(key.indexOf(".") + 1); // id
-                    for (Field field : fields)
+                    String nestedFiledName = key.substring(0, dotIndex); // model
+                    String nestedPropertyName = key.substring(dotIndex + 1); // id
+                    FieldBinding binding = plan.getBinding(nestedFiledName);
+                    if (binding != null)
                     {
-                        if (field.getName().equals(nestedFiledName))
+                        Object nestedInstance = nestedInstances.get(nestedFiledName);
+                        if (nestedInstance == null)
                         {
-                            field.setAccessible(true);
-                            Class<?> type = field.getType();
-                            if (nestedInstance == null)
-                                nestedInstance = type.newInstance();
-                            Field nestedField = ReflectionUtil.getField(type, nestedPropertyName);
-                            nestedField.setAccessible(true);
-                            Class<?> nestedType = nestedField.getType();
-                            String val = param.getValue()[0];
-                            ReflectionUtil.set(nestedField, nestedInstance, ReflectionUtil.toObject(nestedType, val));
-                            //
-                            ReflectionUtil.set(field, instance, nestedInstance);
+                            nestedInstance = binding.getType().newInstance();
+                            nestedInstances.put(nestedFiledName, nestedInstance);
                         }
+                        FieldBinding nestedBinding = BindingPlan.of(binding.getType()).getRequiredBinding(nestedPropertyName);
+                        nestedBinding.set(nestedInstance, nestedBinding.convert(param.getValue()[0]));
+                        //
+                        binding.set(instance, nestedInstance);
                     }
                 }
-                else if (key.indexOf("[") > 0)
+                else if (bracketIndex > 0)
                 {
                     nestedParams.put(key, param.getValue()[0]);
                 }
                 else
                 {
-                    for (Field field : fields)
+                    FieldBinding binding = plan.getBinding(key);
+                    if (binding != null && binding.isSimple())
                     {
-                        if (field.getName().equals(key))
-                        {
-                            Class<?> type = field.getType();
-                            if (ReflectionUtil.isPrimitive(type) || ReflectionUtil.isWrapper(type))
-                            {
-                                field.setAccessible(true);
-                                ReflectionUtil.set(field, instance, ReflectionUtil.toObject(type, param.getValue()[0]));
-                            }
-
-                        }
+                        binding.set(instance, binding.convert(param.getValue()[0]));
                     }
                 }
 
             }
             if (nestedParams.isEmpty() == false)
-                processNestedObjectList(nestedParams);
+                processNestedObjectList(plan, nestedParams);
         }
         catch (Exception e)
         {
@@ -154,48 +166,184 @@ public abstract class RequestProcessor<E> extends TransactionalContextualHttpSer
 
     }
 
-    private void processNestedObjectList(HashMap<String, Object> nestedParams) throws Exception
+    protected boolean isJsonRequest()
+    {
+        String contentType = request.getContentType();
+        if (contentType == null)
+            return false;
+        contentType = contentType.toLowerCase(Locale.ENGLISH);
+        return contentType.startsWith("application/json") || contentType.contains("+json");
+    }
+
+    /**
+     * json object body is bound into instance, json array body into
+     * {@link #getInstances()}
+     */
+    private void processJsonRequest()
+    {
+        try
+        {
+            if (jsonBody == null)
+                jsonBody = readBody();
+            JsonReader reader = new JsonReader(new StringReader(jsonBody));
+            Token token = reader.peek();
+            if (token == Token.BEGIN_OBJECT)
+                JsonBinder.bindInto(reader, instance);
+            else if (token == Token.BEGIN_ARRAY)
+                instances = JsonBinder.bindList(reader, entityClass);
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    private String readBody() throws IOException
+    {
+        BufferedReader reader = request.getReader();
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) != -1)
+        {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * entities of a rolled back attempt carry its generated ids and versions,
+     * fresh ones are bound from the request
+     */
+    @Override
+    protected void prepareRetry() throws Exception
+    {
+        super.prepareRetry();
+        instance = entityClass.newInstance();
+        instances = Collections.emptyList();
+        processRequest();
+    }
+
+    private void processNestedObjectList(BindingPlan plan, HashMap<String, Object> nestedParams) throws Exception
     {
         List<Map.Entry<String, Object>> list = new LinkedList<Map.Entry<String, Object>>(nestedParams.entrySet());
         Collections.sort(list, new MapEntryAlphanumComparator());
-        Collection collectionInstance = null;
+        Map<String, Collection> collectionInstances = new HashMap<String, Collection>();
         Object genericInstance = null;
-        int paramIndex = 0;
-        List<Field> fields = ReflectionUtil.getFields(entityClass);
+        Collection genericCollection = null;
+        String previousFieldName = null;
+        int paramIndex = -1;
         for (Map.Entry<String, Object> entry : list)
         {
             // handle list roles[0].rolename
             String key = entry.getKey();
             String nestedFiledName = key.substring(0, key.indexOf("[")); // roles
             String nestedPropertyName = key.substring(key.indexOf(".") + 1); // rolename
-            Matcher matcher = Pattern.compile("\\[(.)\\]").matcher(key);
+            Matcher matcher = INDEX_PATTERN.matcher(key);
             int nestedIndex = 0;
             if (matcher.find())
                 nestedIndex = Integer.parseInt(matcher.group(1));
-            for (Field field : fields)
+            FieldBinding binding = plan.getBinding(nestedFiledName);
+            if (binding != null)
             {
-                if (field.getName().equals(nestedFiledName))
+                Collection collectionInstance = collectionInstances.get(nestedFiledName);
+                if (collectionInstance == null)
+                {
+                    collectionInstance = ReflectionUtil.instantiateCollection(binding.getType());
+                    collectionInstances.put(nestedFiledName, collectionInstance);
+                }
+                Class<?> genericFieldClassType = binding.getElementType();
+                // TODO : if primitive throw exception
+                if (genericInstance == null || nestedIndex != paramIndex || nestedFiledName.equals(previousFieldName) == false)
                 {
-                    field.setAccessible(true);
-                    Class<?> type = field.getType();
-                    if (collectionInstance == null)
-                        collectionInstance = ReflectionUtil.instantiateCollection(type);
-                    Class<?> genericFieldClassType = ReflectionUtil.getGenericFieldClassType(field);
-                    // TODO : if primitive throw exception
-                    if (genericInstance == null || nestedIndex != paramIndex)
-                        genericInstance = genericFieldClassType.newInstance();
-                    Field instanceField = ReflectionUtil.getField(genericFieldClassType, nestedPropertyName);
-                    String val = String.valueOf(entry.getValue());
-                    instanceField.setAccessible(true);
-                    ReflectionUtil.set(instanceField, genericInstance, ReflectionUtil.toObject(instanceField.getType(), val));
-                    //
-                    collectionInstance.add(genericInstance);
-                    //
-                    ReflectionUtil.set(field, instance, collectionInstance);
+                    // element is added once all of its fields are bound, hash
+                    // based collections depend on them
+                    if (genericInstance != null)
+                        genericCollection.add(genericInstance);
+                    genericInstance = genericFieldClassType.newInstance();
+                    genericCollection = collectionInstance;
                 }
+                FieldBinding instanceBinding = BindingPlan.of(genericFieldClassType).getRequiredBinding(nestedPropertyName);
+                String val = String.valueOf(entry.getValue());
+                instanceBinding.set(genericInstance, instanceBinding.convert(val));
+                //
+                binding.set(instance, collectionInstance);
             }
             paramIndex = nestedIndex;
+            previousFieldName = nestedFiledName;
         }
+        if (genericInstance != null)
+            genericCollection.add(genericInstance);
+    }
+
+    /**
+     * binds list payloads (users[0].username, users[0].city.id,
+     * users[1].username ...) into new entity instances, one per index in index
+     * order. use with {@link EntityBatch} for bulk submissions
+     * 
+     * @param prefix
+     *            : users
+     */
+    public List<E> bindList(String prefix) throws Exception
+    {
+        BindingPlan plan = BindingPlan.of(entityClass);
+        String keyPrefix = prefix + "[";
+        SortedMap<Integer, E> instances = new TreeMap<Integer, E>();
+        Map<String, Object> nestedInstances = new HashMap<String, Object>();
+        Map<String, String[]> parameterMap = request.getParameterMap();
+        for (Map.Entry<String, String[]> param : parameterMap.entrySet())
+        {
+            String key = param.getKey();
+            if (key.startsWith(keyPrefix) == false)
+                continue;
+            int closeIndex = key.indexOf("]", keyPrefix.length());
+            if (closeIndex == -1 || closeIndex + 1 >= key.length() || key.charAt(closeIndex + 1) != '.')
+                continue;
+            int index;
+            try
+            {
+                index = Integer.parseInt(key.substring(keyPrefix.length(), closeIndex));
+            }
+            catch (NumberFormatException e)
+            {
+                continue;
+            }
+            E element = instances.get(index);
+            if (element == null)
+            {
+                element = entityClass.newInstance();
+                instances.put(index, element);
+            }
+            String propertyName = key.substring(closeIndex + 2); // username
+            int dotIndex = propertyName.indexOf(".");
+            if (dotIndex > 0)
+            {
+                // nested object city.id
+                String nestedFiledName = propertyName.substring(0, dotIndex);
+                FieldBinding binding = plan.getBinding(nestedFiledName);
+                if (binding == null)
+                    continue;
+                String nestedKey = index + "." + nestedFiledName;
+                Object nestedInstance = nestedInstances.get(nestedKey);
+                if (nestedInstance == null)
+                {
+                    nestedInstance = binding.getType().newInstance();
+                    nestedInstances.put(nestedKey, nestedInstance);
+                    binding.set(element, nestedInstance);
+                }
+                FieldBinding nestedBinding = BindingPlan.of(binding.getType()).getRequiredBinding(propertyName.substring(dotIndex + 1));
+                nestedBinding.set(nestedInstance, nestedBinding.convert(param.getValue()[0]));
+            }
+            else
+            {
+                FieldBinding binding = plan.getBinding(propertyName);
+                if (binding != null && binding.isSimple())
+                {
+                    binding.set(element, binding.convert(param.getValue()[0]));
+                }
+            }
+        }
+        return new ArrayList<E>(instances.values());
     }
 
     public E getInstance()
@@ -203,4 +351,12 @@ public abstract class RequestProcessor<E> extends TransactionalContextualHttpSer
         return instance;
     }
 
+    /**
+     * @return entities of a json array body, empty otherwise
+     */
+    public List<E> getInstances()
+    {
+        return instances;
+    }
+
 }
@@ -0,0 +1,134 @@
+package ir.seam.ui.core;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * development helper, watches resource directories on a background thread and
+ * runs a callback once a burst of file changes settles. nothing is probed on
+ * the request path
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class ResourceWatcher implements Closeable
+{
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceWatcher.class);
+
+    /**
+     * editors write a file in several steps, changes within this time are
+     * handled once
+     */
+    private static final long SETTLE_MILLIS = 200;
+
+    private final WatchService watchService;
+    private final Runnable onChange;
+    private final Thread thread;
+
+    public ResourceWatcher(Collection<File> directories, Runnable onChange) throws IOException
+    {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.onChange = onChange;
+        for (File directory : directories)
+        {
+            register(directory.toPath());
+        }
+        this.thread = new Thread(new Runnable() {
+
+            @Override
+            public void run()
+            {
+                watch();
+            }
+        }, "seam-resource-watcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private void register(Path directory) throws IOException
+    {
+        directory.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    }
+
+    private void watch()
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watchService.take();
+                handle(key);
+                // wait until changes settle
+                WatchKey next;
+                while ((next = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                {
+                    handle(next);
+                }
+                try
+                {
+                    onChange.run();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.warn("resource rebuild failed : " + e.getMessage());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch (ClosedWatchServiceException e)
+        {
+            // closed
+        }
+    }
+
+    private void handle(WatchKey key)
+    {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents())
+        {
+            if (event.kind() != ENTRY_CREATE)
+                continue;
+            // watch new sub directories too
+            Path child = directory.resolve((Path) event.context());
+            if (child.toFile().isDirectory())
+            {
+                try
+                {
+                    register(child);
+                }
+                catch (IOException e)
+                {
+                    logger.info(e.getMessage());
+                }
+            }
+        }
+        key.reset();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        watchService.close();
+    }
+
+}
@@ -0,0 +1,239 @@
+package com.omidbiz;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.AttributeOverride;
+import javax.persistence.AttributeOverrides;
+import javax.persistence.Column;
+
+/**
+ * maps a query record into an entity. column names, attribute overrides,
+ * field accessors and converters are resolved once per entity class
+ *
+ * @author Omid Pourhadi : omidpourhadi [AT] gmail [DOT] com
+ * @param <E>
+ *            : entity
+ */
+public class RowMapper<E> implements orm.RowMapper<E>
+{
+
+    private static final ConcurrentMap<Class<?>, RowMapper<?>> MAPPERS = new ConcurrentHashMap<Class<?>, RowMapper<?>>();
+
+    /**
+     * set on {@link orm.QueryController#setRowMapperFactory(orm.RowMapper.Factory)}
+     * to stream entities
+     */
+    public static final orm.RowMapper.Factory FACTORY = new orm.RowMapper.Factory() {
+
+        @Override
+        public <T> orm.RowMapper<T> getRowMapper(Class<T> entityClass)
+        {
+            return of(entityClass);
+        }
+    };
+
+    private final Class<E> entityClass;
+    private final ColumnMapping[] mappings;
+
+    private RowMapper(Class<E> entityClass)
+    {
+        this.entityClass = entityClass;
+        Map<String, String> overrides = new HashMap<String, String>();
+        if (entityClass.isAnnotationPresent(AttributeOverrides.class))
+        {
+            for (AttributeOverride attributeOverride : entityClass.getAnnotation(AttributeOverrides.class).value())
+                putOverride(attributeOverride, overrides);
+        }
+        if (entityClass.isAnnotationPresent(AttributeOverride.class))
+        {
+            putOverride(entityClass.getAnnotation(AttributeOverride.class), overrides);
+        }
+        List<Property> properties = ReflectionUtil.getProperties(entityClass);
+        List<ColumnMapping> list = new ArrayList<ColumnMapping>(properties.size());
+        for (Property prop : properties)
+        {
+            String columnName = prop.getColumnName();
+            String overridden = overrides.get(columnName);
+            if (overridden != null)
+                columnName = overridden;
+            Field field = ReflectionUtil.getField(entityClass, prop.getFieldName());
+            list.add(new ColumnMapping(columnName, field));
+        }
+        this.mappings = list.toArray(new ColumnMapping[list.size()]);
+    }
+
+    private static void putOverride(AttributeOverride attributeOverride, Map<String, String> overrides)
+    {
+        Column column = attributeOverride.column();
+        overrides.put(attributeOverride.name(), column.name());
+    }
+
+    public static <E> RowMapper<E> of(Class<E> entityClass)
+    {
+        RowMapper<E> mapper = (RowMapper<E>) MAPPERS.get(entityClass);
+        if (mapper == null)
+        {
+            RowMapper<E> newMapper = new RowMapper<E>(entityClass);
+            mapper = (RowMapper<E>) MAPPERS.putIfAbsent(entityClass, newMapper);
+            if (mapper == null)
+                mapper = newMapper;
+        }
+        return mapper;
+    }
+
+    public Class<E> getEntityClass()
+    {
+        return entityClass;
+    }
+
+    public E mapRow(Map<String, Object> dbRecord) throws Exception
+    {
+        E instance = entityClass.newInstance();
+        for (int i = 0; i < mappings.length; i++)
+        {
+            ColumnMapping mapping = mappings[i];
+            mapping.apply(instance, dbRecord.get(mapping.columnName));
+        }
+        return instance;
+    }
+
+    public List<E> mapRows(List<Map<String, Object>> queryResult) throws Exception
+    {
+        List<E> instanceList = new ArrayList<E>(queryResult.size());
+        for (Map<String, Object> dbRecord : queryResult)
+        {
+            instanceList.add(mapRow(dbRecord));
+        }
+        return instanceList;
+    }
+
+    /**
+     * resolves the index of every mapped column against a result header, the
+     * returned mapper reads rows by position
+     * 
+     * @param columnNames
+     *            result column labels, matched case insensitive
+     */
+    @Override
+    public IndexedRowMapper<E> bind(String[] columnNames)
+    {
+        Map<String, Integer> indexes = new HashMap<String, Integer>(columnNames.length * 2);
+        for (int i = 0; i < columnNames.length; i++)
+        {
+            String key = columnNames[i].toLowerCase(Locale.ENGLISH);
+            if (indexes.containsKey(key) == false)
+                indexes.put(key, i);
+        }
+        List<ColumnMapping> bound = new ArrayList<ColumnMapping>(mappings.length);
+        List<Integer> boundIndexes = new ArrayList<Integer>(mappings.length);
+        for (ColumnMapping mapping : mappings)
+        {
+            Integer index = indexes.get(mapping.columnName.toLowerCase(Locale.ENGLISH));
+            if (index != null)
+            {
+                bound.add(mapping);
+                boundIndexes.add(index);
+            }
+        }
+        int[] columnIndexes = new int[boundIndexes.size()];
+        for (int i = 0; i < columnIndexes.length; i++)
+            columnIndexes[i] = boundIndexes.get(i);
+        return new IndexedRowMapper<E>(entityClass, bound.toArray(new ColumnMapping[bound.size()]), columnIndexes);
+    }
+
+    public static class IndexedRowMapper<E> implements orm.RowMapper.Bound<E>
+    {
+        private final Class<E> entityClass;
+        private final ColumnMapping[] mappings;
+        private final int[] columnIndexes;
+
+        private IndexedRowMapper(Class<E> entityClass, ColumnMapping[] mappings, int[] columnIndexes)
+        {
+            this.entityClass = entityClass;
+            this.mappings = mappings;
+            this.columnIndexes = columnIndexes;
+        }
+
+        @Override
+        public E mapRow(Object[] row) throws Exception
+        {
+            E instance = entityClass.newInstance();
+            for (int i = 0; i < mappings.length; i++)
+            {
+                mappings[i].apply(instance, row[columnIndexes[i]]);
+            }
+            return instance;
+        }
+
+        public List<E> mapRows(List<Object[]> rows) throws Exception
+        {
+            List<E> instanceList = new ArrayList<E>(rows.size());
+            for (Object[] row : rows)
+            {
+                instanceList.add(mapRow(row));
+            }
+            return instanceList;
+        }
+    }
+
+    private enum Kind
+    {
+        SIMPLE, ENUM, RELATION;
+    }
+
+    private static class ColumnMapping
+    {
+        private final String columnName;
+        private final FieldAccessor accessor;
+        private final Class<?> type;
+        private final Kind kind;
+
+        ColumnMapping(String columnName, Field field)
+        {
+            this.columnName = columnName;
+            this.accessor = FieldAccessor.of(field);
+            this.type = field.getType();
+            if (ReflectionUtil.isPrimitive(type) || ReflectionUtil.isWrapper(type))
+                this.kind = Kind.SIMPLE;
+            else if (type.isEnum())
+                this.kind = Kind.ENUM;
+            else
+                this.kind = Kind.RELATION;
+        }
+
+        void apply(Object instance, Object recordValue) throws Exception
+        {
+            if (recordValue == null)
+                return;
+            switch (kind)
+            {
+            case SIMPLE:
+                ReflectionUtil.set(accessor, instance, ReflectionUtil.toObject(type, recordValue));
+                break;
+            case ENUM:
+                Enum enVal = Enum.valueOf((Class<Enum>) type, String.valueOf(recordValue));
+                ReflectionUtil.set(accessor, instance, enVal);
+                break;
+            default:
+                // field is relational entity
+                Object entityInstance = type.newInstance();
+                if (entityInstance instanceof BasePO)
+                {
+                    BasePO po = (BasePO) entityInstance;
+                    po.setId((Long) recordValue);
+                    ReflectionUtil.set(accessor, instance, entityInstance);
+                }
+                break;
+            }
+        }
+
+    }
+
+}
@@ -3,19 +3,23 @@ package ir.seam.ui.core;
 import static org.jboss.seam.ScopeType.APPLICATION;
 import static org.jboss.seam.annotations.Install.BUILT_IN;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
 import org.jboss.seam.annotations.Create;
+import org.jboss.seam.annotations.Destroy;
 import org.jboss.seam.annotations.Install;
 import org.jboss.seam.annotations.Name;
 import org.jboss.seam.annotations.Scope;
@@ -29,74 +33,347 @@ import org.jboss.seam.web.AbstractResource;
 public class SeamResource extends AbstractResource
 {
 
+    private static final String RESOURCE = "/ir/seam/ui/core/test.js";
+
+    public static final String DEFAULT_RESOURCE_PATH = "/components.js";
+
     private long startupTime;
 
+    private String resourcePath = DEFAULT_RESOURCE_PATH;
+
+    /**
+     * bundle name (app.js, app.css) to comma separated classpath resources,
+     * served at resourcePath/name
+     */
+    private Map<String, String> bundles = new HashMap<String, String>();
+
+    private boolean minify;
+
+    /**
+     * classpath directory of large static files (fonts, source maps), served
+     * from disk at resourcePath/relative path
+     */
+    private String fileRoot;
+
+    private volatile Map<String, FileAsset> fileAssets = Collections.emptyMap();
+
+    /**
+     * watch source files and rebuild assets on change, for development only
+     */
+    private boolean devMode;
+
+    private ResourceWatcher watcher;
+
+    /**
+     * built assets by name, empty name is the resource served at
+     * resourcePath itself
+     */
+    private volatile Map<String, CachedAsset> assets = Collections.emptyMap();
+
     @Create
     public void init()
     {
         this.startupTime = System.currentTimeMillis();
+        build();
+        if (devMode)
+            startWatcher();
     }
 
-    @Override
-    public void getResource(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    @Destroy
+    public void destroy()
     {
-        
-        URL resourceUrl = SeamResource.class.getResource("/ir/seam/ui/core/test.js");
-        long latestTimestamp = -1;
-        long timestamp = getFileTimestamp(resourceUrl);
-        if (timestamp > latestTimestamp)
+        if (watcher != null)
         {
-            latestTimestamp = timestamp;
-        }
-        long lastModified = (latestTimestamp > this.startupTime ? latestTimestamp : this.startupTime);
-        
-        if (request.getDateHeader("If-Modified-Since") != -1)
-        {
-            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-            return;
+            try
+            {
+                watcher.close();
+            }
+            catch (IOException e)
+            {
+                // ignore
+            }
+            watcher = null;
         }
-        if (lastModified != -1)
+    }
+
+    /**
+     * reads every asset and its metadata, requests only see the built maps
+     */
+    protected void build()
+    {
+        Map<String, CachedAsset> built = new HashMap<String, CachedAsset>();
+        CachedAsset asset = loadAsset();
+        if (asset != null)
+            built.put("", asset);
+        for (Map.Entry<String, String> bundle : bundles.entrySet())
         {
-            lastModified -= lastModified % 1000;
-            long requestModifiedSince = request.getDateHeader("If-Modified-Since");
-            if (lastModified <= requestModifiedSince)
+            try
+            {
+                built.put(bundle.getKey(), AssetBundler.build(bundle.getKey(), bundle.getValue(), minify, startupTime));
+            }
+            catch (IOException e)
             {
-                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
-                return;
+                throw new IllegalStateException(e.getMessage(), e);
             }
         }
-        response.setDateHeader("Last-Modified", lastModified != -1 ? lastModified : this.startupTime);
-        response.setHeader("Cache-Control", "must-revalidate");
-        InputStream in = null;
-		OutputStream outputStream = null;
+        this.assets = Collections.unmodifiableMap(built);
+        this.fileAssets = indexFiles();
+    }
+
+    /**
+     * rebuilds assets when a source file in an exploded directory changes,
+     * resources inside jars are not watched
+     */
+    private void startWatcher()
+    {
+        Set<File> directories = new HashSet<File>();
+        addParentDirectory(RESOURCE, directories);
+        for (String resources : bundles.values())
+        {
+            for (String resource : AssetBundler.split(resources))
+                addParentDirectory(resource, directories);
+        }
+        File root = getFileRootDirectory();
+        if (root != null)
+            addDirectoryTree(root, directories);
+        if (directories.isEmpty())
+            return;
         try
         {
-            in = resourceUrl.openStream();
-            response.setContentType("text/javascript");
-            outputStream = selectOutputStream(request, response);
-            if (in != null)
-            {
-                byte[] buffer = new byte[1024];
-                int read = in.read(buffer);
-                while (read != -1)
+            watcher = new ResourceWatcher(directories, new Runnable() {
+
+                @Override
+                public void run()
                 {
-                    outputStream.write(buffer, 0, read);
-                    read = in.read(buffer);
+                    build();
                 }
-                outputStream.flush();
-                
-            }
+            });
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    private static void addParentDirectory(String resource, Set<File> directories)
+    {
+        File file = toFile(SeamResource.class.getResource(resource));
+        if (file != null && file.getParentFile() != null)
+            directories.add(file.getParentFile());
+    }
+
+    private static void addDirectoryTree(File directory, Set<File> directories)
+    {
+        directories.add(directory);
+        File[] children = directory.listFiles();
+        if (children == null)
+            return;
+        for (File child : children)
+        {
+            if (child.isDirectory())
+                addDirectoryTree(child, directories);
+        }
+    }
+
+    /**
+     * @return file of a file url, null for jar entries
+     */
+    private static File toFile(URL url)
+    {
+        if (url == null || "file".equals(url.getProtocol()) == false)
+            return null;
+        try
+        {
+            return new File(url.toURI());
+        }
+        catch (URISyntaxException e)
+        {
+            return null;
+        }
+    }
+
+    private File getFileRootDirectory()
+    {
+        if (fileRoot == null)
+            return null;
+        File directory = toFile(SeamResource.class.getResource(fileRoot));
+        return directory != null && directory.isDirectory() ? directory : null;
+    }
+
+    /**
+     * files are only served from disk when fileRoot is an exploded directory,
+     * resources packed in a jar have no file to transfer from
+     */
+    protected Map<String, FileAsset> indexFiles()
+    {
+        File directory = getFileRootDirectory();
+        if (directory == null)
+            return Collections.emptyMap();
+        Map<String, FileAsset> files = new HashMap<String, FileAsset>();
+        indexDirectory(directory, "", files);
+        return Collections.unmodifiableMap(files);
+    }
+
+    private static void indexDirectory(File directory, String prefix, Map<String, FileAsset> files)
+    {
+        File[] children = directory.listFiles();
+        if (children == null)
+            return;
+        for (File child : children)
+        {
+            if (child.isDirectory())
+                indexDirectory(child, prefix + child.getName() + "/", files);
             else
+                files.put(prefix + child.getName(), new FileAsset(child));
+        }
+    }
+
+    /**
+     * reads the script once, it is served from memory afterwards
+     */
+    protected CachedAsset loadAsset()
+    {
+        URL resourceUrl = SeamResource.class.getResource(RESOURCE);
+        if (resourceUrl == null)
+            return null;
+        long timestamp = getFileTimestamp(resourceUrl);
+        long lastModified = (timestamp > this.startupTime ? timestamp : this.startupTime);
+        try
+        {
+            return CachedAsset.load(resourceUrl, "text/javascript", lastModified);
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @param name
+     *            bundle name, empty for the resource at resourcePath
+     * @return fingerprinted path of bundle under resource servlet, it is
+     *         cached by browsers for a year, null if bundle does not exist
+     */
+    public String getBundlePath(String name)
+    {
+        CachedAsset asset = assets.get(name);
+        if (asset == null)
+            return null;
+        String fileName = name.length() == 0 ? getDefaultName() : name;
+        int dot = fileName.lastIndexOf('.');
+        String fingerprinted = dot == -1 ? fileName + "." + asset.getHash() : fileName.substring(0, dot) + "." + asset.getHash()
+                + fileName.substring(dot);
+        return resourcePath + "/" + fingerprinted;
+    }
+
+    /**
+     * file name of resourcePath, components.js
+     */
+    private String getDefaultName()
+    {
+        return resourcePath.substring(resourcePath.lastIndexOf('/') + 1);
+    }
+
+    @Override
+    public void getResource(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException
+    {
+        String name = getAssetName(request);
+        CachedAsset asset = name == null ? null : assets.get(name);
+        boolean immutable = false;
+        if (asset == null && name != null)
+        {
+            // fingerprinted name : app.<hash>.js
+            String[] fingerprint = splitFingerprint(name);
+            if (fingerprint != null)
             {
-                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+                String baseName = fingerprint[0].equals(getDefaultName()) ? "" : fingerprint[0];
+                asset = assets.get(baseName);
+                // an old fingerprint gets current content but must not be
+                // cached for ever
+                immutable = asset != null && asset.getHash().equals(fingerprint[1]);
             }
         }
-        finally
+        if (asset == null)
         {
-            IOUtils.closeQuietly(in);
-            IOUtils.closeQuietly(outputStream);
+            FileAsset fileAsset = name == null ? null : fileAssets.get(name);
+            if (fileAsset != null)
+                fileAsset.serve(request, response, "public, no-cache");
+            else
+                response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        String encoding = asset.selectEncoding(request);
+        asset.setCacheHeaders(response, encoding);
+        response.setHeader("Cache-Control", immutable ? "public, max-age=31536000, immutable" : "public, no-cache");
+        if (isNotModified(request, asset))
+        {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        asset.write(response, encoding);
+    }
+
+    /**
+     * If-None-Match wins over If-Modified-Since when both are sent
+     */
+    private boolean isNotModified(HttpServletRequest request, CachedAsset asset)
+    {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)
+            return asset.matches(ifNoneMatch);
+        long requestModifiedSince = request.getDateHeader("If-Modified-Since");
+        return requestModifiedSince != -1 && asset.getLastModified() <= requestModifiedSince;
+    }
+
+    /**
+     * @return asset name after resourcePath, empty for resourcePath itself,
+     *         null if path does not belong to this resource
+     */
+    private String getAssetName(HttpServletRequest request)
+    {
+        String pathInfo = request.getPathInfo();
+        if (pathInfo == null)
+            return null;
+        if (pathInfo.startsWith(resourcePath) == false)
+            return null;
+        String name = pathInfo.substring(resourcePath.length());
+        if (name.length() == 0)
+            return name;
+        // only whole path segments, /components.jsx is not ours
+        return name.startsWith("/") ? name.substring(1) : null;
+    }
 
+    /**
+     * @return base name and hash of app.&lt;hash&gt;.js or
+     *         bundle.&lt;hash&gt;, null if name is not fingerprinted
+     */
+    private static String[] splitFingerprint(String name)
+    {
+        int last = name.lastIndexOf('.');
+        if (last == -1)
+            return null;
+        String suffix = name.substring(last + 1);
+        if (isHash(suffix))
+            return new String[] { name.substring(0, last), suffix };
+        int previous = name.lastIndexOf('.', last - 1);
+        if (previous == -1)
+            return null;
+        String hash = name.substring(previous + 1, last);
+        if (isHash(hash) == false)
+            return null;
+        return new String[] { name.substring(0, previous) + name.substring(last), hash };
+    }
+
+    private static boolean isHash(String value)
+    {
+        if (value.length() != 16)
+            return false;
+        for (int i = 0; i < value.length(); i++)
+        {
+            if (Character.digit(value.charAt(i), 16) == -1)
+                return false;
+        }
+        return true;
     }
 
     protected long getFileTimestamp(URL url)
@@ -124,7 +401,56 @@ public class SeamResource extends AbstractResource
     @Override
     public String getResourcePath()
     {
-        return "/components.js";
+        return resourcePath;
+    }
+
+    /**
+     * first path segment under the resource servlet, seam picks the resource
+     * provider by it so bundles are served below it
+     */
+    public void setResourcePath(String resourcePath)
+    {
+        this.resourcePath = resourcePath;
+    }
+
+    public Map<String, String> getBundles()
+    {
+        return bundles;
+    }
+
+    public void setBundles(Map<String, String> bundles)
+    {
+        this.bundles = bundles;
+    }
+
+    public String getFileRoot()
+    {
+        return fileRoot;
+    }
+
+    public void setFileRoot(String fileRoot)
+    {
+        this.fileRoot = fileRoot;
+    }
+
+    public boolean isDevMode()
+    {
+        return devMode;
+    }
+
+    public void setDevMode(boolean devMode)
+    {
+        this.devMode = devMode;
+    }
+
+    public boolean isMinify()
+    {
+        return minify;
+    }
+
+    public void setMinify(boolean minify)
+    {
+        this.minify = minify;
     }
 
 }
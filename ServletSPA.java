@@ -8,7 +8,6 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.jboss.seam.Component;
 import org.jboss.seam.servlet.ContextualHttpServletRequest;
 import org.jboss.seam.transaction.Transaction;
 import org.jboss.seam.transaction.UserTransaction;
@@ -35,7 +34,7 @@ public class ServletSPA extends HttpServlet
                 User u = getInstance();
                 UserTransaction userTransaction = Transaction.instance();
                 userTransaction.begin();
-                EntityManager entityManager = (EntityManager) Component.getInstance("entityManager");
+                EntityManager entityManager = getEntityManager();
                 entityManager.joinTransaction();
                 entityManager.persist(u);
                 userTransaction.commit();
@@ -1,16 +1,29 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManager;
+import javax.persistence.OptimisticLockException;
 import javax.servlet.http.HttpServletRequest;
-import javax.transaction.HeuristicMixedException;
-import javax.transaction.HeuristicRollbackException;
-import javax.transaction.NotSupportedException;
-import javax.transaction.RollbackException;
-import javax.transaction.SystemException;
 
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.StaleStateException;
+import org.hibernate.jdbc.Work;
+import org.jboss.seam.Component;
 import org.jboss.seam.servlet.ContextualHttpServletRequest;
 import org.jboss.seam.transaction.Transaction;
 import org.jboss.seam.transaction.UserTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import orm.QueryController;
+
 /**
  * @author Omid Pourhadi
  *
@@ -19,10 +32,33 @@ public abstract class TransactionalContextualHttpServletRequest extends Contextu
 {
 
     protected final static Logger logger = LoggerFactory.getLogger(TransactionalContextualHttpServletRequest.class);
-    
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    public static final long DEFAULT_GROUP_COMMIT_TIMEOUT_MILLIS = 30000;
+    private static final long BASE_BACKOFF_MILLIS = 25;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+
+    private static final AtomicLong attemptCount = new AtomicLong();
+    private static final AtomicLong retryCount = new AtomicLong();
+    private static final AtomicLong giveUpCount = new AtomicLong();
+
+    private final boolean readOnly;
+
     public TransactionalContextualHttpServletRequest(HttpServletRequest request)
+    {
+        this(request, false);
+    }
+
+    /**
+     * @param readOnly
+     *            run {@link #workInTransaction()} without jta transaction, with
+     *            manual flush and a read only connection, for requests which
+     *            only read
+     */
+    public TransactionalContextualHttpServletRequest(HttpServletRequest request, boolean readOnly)
     {
         super(request);
+        this.readOnly = readOnly;
     }
 
     @Override
@@ -31,44 +67,348 @@ public abstract class TransactionalContextualHttpServletRequest extends Contextu
         work();
     }
 
-    private void work()
+    /**
+     * when true the unit of work is handed to {@link GroupCommitWriter} and
+     * committed together with the units of concurrent requests, the request
+     * thread waits for its own result
+     */
+    protected boolean isGroupCommit()
+    {
+        return false;
+    }
+
+    /**
+     * time a group commit request waits for its unit, the unit is cancelled
+     * if it did not start yet
+     */
+    protected long getGroupCommitTimeoutMillis()
+    {
+        return DEFAULT_GROUP_COMMIT_TIMEOUT_MILLIS;
+    }
+
+    /**
+     * entity manager of the work, read only requests get
+     * {@link #getReadOnlyEntityManager()}
+     */
+    protected EntityManager getEntityManager()
+    {
+        if (isReadOnly())
+            return getReadOnlyEntityManager();
+        return (EntityManager) Component.getInstance("entityManager");
+    }
+
+    /**
+     * session of the work, read only requests get {@link #getReadOnlySession()}
+     */
+    protected Session getSession()
+    {
+        if (isReadOnly())
+            return getReadOnlySession();
+        return (Session) Component.getInstance("hibernateSession");
+    }
+
+    /**
+     * looks up a query controller component, in read only requests it runs
+     * its queries read only on the session of the request
+     */
+    protected QueryController getQueryController(String name)
+    {
+        QueryController queryController = (QueryController) Component.getInstance(name);
+        if (isReadOnly())
+        {
+            queryController.setReadOnly(true);
+            queryController.setSession(getReadOnlySession());
+        }
+        return queryController;
+    }
+
+    /**
+     * called before {@link #workInTransaction()} runs again after a rollback.
+     * clears the persistence context, override to also rebuild the entities
+     * the work persists (ids and versions of the failed attempt stay on them)
+     */
+    protected void prepareRetry() throws Exception
+    {
+        EntityManager entityManager = getEntityManager();
+        if (entityManager != null)
+            entityManager.clear();
+    }
+
+    protected boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    /**
+     * session of read only requests, override to route reads to a replica
+     * datasource
+     */
+    protected Session getReadOnlySession()
+    {
+        return (Session) Component.getInstance("hibernateSession");
+    }
+
+    /**
+     * entity manager of read only requests, override with
+     * {@link #getReadOnlySession()} to route reads to a replica datasource
+     */
+    protected EntityManager getReadOnlyEntityManager()
+    {
+        return (EntityManager) Component.getInstance("entityManager");
+    }
+
+    private void work() throws Exception
     {
-        UserTransaction userTransaction = null;
+        if (isReadOnly())
+        {
+            workReadOnly();
+            return;
+        }
+        if (isGroupCommit())
+        {
+            groupCommit();
+            return;
+        }
+        int attempt = 1;
+        while (true)
+        {
+            attemptCount.incrementAndGet();
+            try
+            {
+                workInNewTransaction();
+                return;
+            }
+            catch (Exception e)
+            {
+                if (isRetryable(e) == false)
+                    throw e;
+                if (attempt >= getMaxAttempts())
+                {
+                    giveUpCount.incrementAndGet();
+                    logger.error("giving up after " + attempt + " attempts : " + e.getMessage());
+                    throw e;
+                }
+                long delay = backoff(attempt);
+                logger.warn("retryable failure on attempt " + attempt + ", retrying in " + delay + " ms : " + e.getMessage());
+                try
+                {
+                    Thread.sleep(delay);
+                }
+                catch (InterruptedException ie)
+                {
+                    Thread.currentThread().interrupt();
+                    giveUpCount.incrementAndGet();
+                    throw e;
+                }
+                retryCount.incrementAndGet();
+                attempt++;
+                // failed attempt left its state in the persistence context
+                // and on the entities
+                prepareRetry();
+            }
+        }
+    }
+
+    private void workInNewTransaction() throws Exception
+    {
+        UserTransaction userTransaction = Transaction.instance();
+        userTransaction.begin();
         try
         {
-            userTransaction = Transaction.instance();
-            userTransaction.begin();
             joinTransaction();
             workInTransaction();
             userTransaction.commit();
         }
-        catch (SecurityException e)
+        catch (Exception e)
         {
-            logger.info(e.getMessage());
+            rollback(userTransaction);
+            throw e;
+        }
+    }
+
+    private static void rollback(UserTransaction userTransaction)
+    {
+        try
+        {
+            if (userTransaction.isActiveOrMarkedRollback())
+                userTransaction.rollback();
         }
-        catch (IllegalStateException e)
+        catch (Exception e)
         {
             logger.info(e.getMessage());
         }
-        catch (RollbackException e)
+    }
+
+    /**
+     * attempts of a write including the first one. before each retry
+     * {@link #prepareRetry()} runs, work which keeps state outside of the
+     * request entities must rebuild it there
+     */
+    protected int getMaxAttempts()
+    {
+        return DEFAULT_MAX_ATTEMPTS;
+    }
+
+    /**
+     * deadlock, serialization failure and optimistic lock failures anywhere in
+     * the cause chain are retried
+     */
+    protected boolean isRetryable(Throwable e)
+    {
+        Throwable t = e;
+        while (t != null)
         {
-            logger.info(e.getMessage());
+            if (t instanceof OptimisticLockException || t instanceof StaleStateException)
+                return true;
+            if (t instanceof SQLException)
+            {
+                SQLException sqlException = (SQLException) t;
+                String sqlState = sqlException.getSQLState();
+                // serialization failure, PostgreSQL deadlock, Oracle deadlock
+                if ("40001".equals(sqlState) || "40P01".equals(sqlState) || "61000".equals(sqlState))
+                    return true;
+                // Oracle can not serialize access
+                if (sqlException.getErrorCode() == 8177)
+                    return true;
+            }
+            t = t.getCause() == t ? null : t.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * exponential backoff with jitter, half of the delay is random so
+     * conflicting requests do not retry in lock step
+     */
+    private static long backoff(int attempt)
+    {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * @return transactions started by writes, retries included
+     */
+    public static long getAttemptCount()
+    {
+        return attemptCount.get();
+    }
+
+    public static long getRetryCount()
+    {
+        return retryCount.get();
+    }
+
+    /**
+     * @return writes which failed after their last retry
+     */
+    public static long getGiveUpCount()
+    {
+        return giveUpCount.get();
+    }
+
+    private void workReadOnly()
+    {
+        Session session = getSession();
+        // entity manager may have its own persistence context and connection
+        Object delegate = getEntityManager().getDelegate();
+        Session entityManagerSession = delegate instanceof Session && delegate != session ? (Session) delegate : null;
+        FlushMode flushMode = session.getFlushMode();
+        session.setFlushMode(FlushMode.MANUAL);
+        boolean sessionMarked = false;
+        boolean entityManagerMarked = false;
+        try
+        {
+            sessionMarked = markReadOnly(session);
+            if (entityManagerSession != null)
+                entityManagerMarked = markReadOnly(entityManagerSession);
+            workInTransaction();
         }
-        catch (HeuristicMixedException e)
+        finally
         {
-            logger.info(e.getMessage());
+            session.setFlushMode(flushMode);
+            // pooled connection must not go back read only
+            if (sessionMarked)
+                unmarkReadOnly(session);
+            if (entityManagerMarked)
+                unmarkReadOnly(entityManagerSession);
         }
-        catch (HeuristicRollbackException e)
+    }
+
+    /**
+     * @return true if connection was switched to read only
+     */
+    private static boolean markReadOnly(Session session)
+    {
+        final boolean[] marked = new boolean[1];
+        session.doWork(new Work() {
+
+            @Override
+            public void execute(Connection connection) throws SQLException
+            {
+                if (connection.isReadOnly() == false)
+                {
+                    connection.setReadOnly(true);
+                    marked[0] = true;
+                }
+            }
+        });
+        return marked[0];
+    }
+
+    private static void unmarkReadOnly(Session session)
+    {
+        session.doWork(new Work() {
+
+            @Override
+            public void execute(Connection connection) throws SQLException
+            {
+                connection.setReadOnly(false);
+            }
+        });
+    }
+
+    private void groupCommit() throws Exception
+    {
+        Future<Void> result = GroupCommitWriter.instance().submit(new GroupCommitWriter.WorkUnit() {
+
+            @Override
+            public void execute() throws Exception
+            {
+                joinTransaction();
+                workInTransaction();
+            }
+
+            @Override
+            public void reset() throws Exception
+            {
+                prepareRetry();
+            }
+        });
+        try
         {
-            logger.info(e.getMessage());
+            result.get(getGroupCommitTimeoutMillis(), TimeUnit.MILLISECONDS);
         }
-        catch (SystemException e)
+        catch (TimeoutException e)
         {
-            logger.info(e.getMessage());
+            // outcome is unknown if unit is already running
+            result.cancel(false);
+            throw e;
         }
-        catch (NotSupportedException e)
+        catch (InterruptedException e)
         {
-            logger.info(e.getMessage());
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
         }
     }
 
@@ -0,0 +1,105 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * result counts shared between controllers, keyed by count query and its bound
+ * values
+ * 
+ * @author Omid Pourhadi
+ * 
+ */
+public class CountCache
+{
+
+    private static final CountCache INSTANCE = new CountCache(1024);
+
+    private final LruCache<List<Object>, Entry> entries;
+
+    public CountCache(int maxSize)
+    {
+        this.entries = new LruCache<List<Object>, Entry>(maxSize);
+    }
+
+    public static CountCache instance()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @param ttl
+     *            time to live in milliseconds
+     * @param approximate
+     *            when true an expired count is still returned while the first
+     *            caller recomputes it
+     * @return cached count or null if caller has to count
+     */
+    public Long get(String sql, Object[] parameters, long ttl, boolean approximate)
+    {
+        Entry entry = entries.get(key(sql, parameters));
+        if (entry == null)
+            return null;
+        if (System.currentTimeMillis() - entry.created <= ttl)
+            return entry.count;
+        if (approximate && entry.refreshing.compareAndSet(false, true) == false)
+            return entry.count;
+        // expired, caller refreshes it
+        return null;
+    }
+
+    public void put(String sql, Object[] parameters, Long count)
+    {
+        if (count == null)
+            return;
+        entries.put(key(sql, parameters), new Entry(count));
+    }
+
+    /**
+     * ends a refresh started by {@link #get(String, Object[], long, boolean)},
+     * call in finally so a failed count is refreshed by a later caller
+     */
+    public void release(String sql, Object[] parameters)
+    {
+        Entry entry = entries.get(key(sql, parameters));
+        if (entry != null)
+            entry.refreshing.set(false);
+    }
+
+    /**
+     * call after writes when stale counts are not acceptable
+     */
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    public int size()
+    {
+        return entries.size();
+    }
+
+    private static List<Object> key(String sql, Object[] parameters)
+    {
+        List<Object> key = new ArrayList<Object>(parameters == null ? 1 : parameters.length + 1);
+        key.add(sql);
+        if (parameters != null)
+            key.addAll(Arrays.asList(parameters));
+        return key;
+    }
+
+    private static class Entry
+    {
+        private final Long count;
+        private final long created = System.currentTimeMillis();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(Long count)
+        {
+            this.count = count;
+        }
+    }
+
+}
@@ -0,0 +1,265 @@
+package orm;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import orm.ResultTable.ColumnHeader;
+
+/**
+ * writes query rows to the response as a json array of objects while the
+ * jdbc cursor is read, the buffer is flushed every few rows so the client can
+ * start rendering before the query is finished
+ *
+ * <pre>
+ * JsonResultWriter writer = new JsonResultWriter(response, JsonResultWriter.acceptsGzip(request));
+ * try
+ * {
+ *     queryController.executeForRows(query, writer);
+ *     writer.finish();
+ * }
+ * finally
+ * {
+ *     writer.close();
+ * }
+ * </pre>
+ *
+ * the array is only terminated by {@link #finish()}, if the query fails the
+ * body is left truncated so the client can not take partial rows for a
+ * complete result
+ *
+ * numbers and booleans are written as json values, everything else (dates
+ * included) as its string form
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class JsonResultWriter implements ResultHandler, Closeable
+{
+
+    public static final int DEFAULT_FLUSH_ROWS = 200;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Writer writer;
+    private final GzipStream gzipStream;
+    private final int flushRows;
+    private final StringBuilder text = new StringBuilder();
+    private String[] names;
+    private long rowCount;
+    private boolean finished;
+    private boolean closed;
+
+    public JsonResultWriter(HttpServletResponse response, boolean gzip) throws IOException
+    {
+        this(response, gzip, DEFAULT_FLUSH_ROWS);
+    }
+
+    /**
+     * @param flushRows
+     *            rows written between two flushes
+     */
+    public JsonResultWriter(HttpServletResponse response, boolean gzip, int flushRows) throws IOException
+    {
+        if (flushRows < 1)
+        {
+            throw new IllegalArgumentException("flush rows must be positive");
+        }
+        this.flushRows = flushRows;
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        OutputStream out = response.getOutputStream();
+        if (gzip)
+        {
+            response.setHeader("Content-Encoding", "gzip");
+            response.addHeader("Vary", "Accept-Encoding");
+            this.gzipStream = new GzipStream(out);
+            out = gzipStream;
+        }
+        else
+        {
+            this.gzipStream = null;
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"), 8192);
+        this.writer.write('[');
+    }
+
+    public static boolean acceptsGzip(HttpServletRequest request)
+    {
+        String acceptEncoding = request.getHeader("Accept-Encoding");
+        return acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ENGLISH).contains("gzip");
+    }
+
+    @Override
+    public void handleHeader(ColumnHeader header) throws Exception
+    {
+        String[] columnNames = header.getColumnNames();
+        names = new String[columnNames.length];
+        for (int i = 0; i < columnNames.length; i++)
+        {
+            if (QueryController.WINDOW_COUNT_COLUMN.equalsIgnoreCase(columnNames[i]))
+                continue;
+            text.setLength(0);
+            appendString(text, columnNames[i]);
+            text.append(':');
+            names[i] = text.toString();
+        }
+    }
+
+    @Override
+    public void handleRow(Object[] row) throws Exception
+    {
+        if (rowCount > 0)
+            writer.write(',');
+        writer.write('{');
+        boolean first = true;
+        for (int i = 0; i < row.length; i++)
+        {
+            if (names[i] == null)
+                continue;
+            if (first == false)
+                writer.write(',');
+            writer.write(names[i]);
+            writeValue(row[i]);
+            first = false;
+        }
+        writer.write('}');
+        rowCount++;
+        if (rowCount % flushRows == 0)
+            writer.flush();
+    }
+
+    private void writeValue(Object value) throws IOException
+    {
+        if (value == null)
+        {
+            writer.write("null");
+        }
+        else if (value instanceof Boolean)
+        {
+            writer.write(value.toString());
+        }
+        else if (value instanceof BigDecimal)
+        {
+            writer.write(((BigDecimal) value).toPlainString());
+        }
+        else if (value instanceof Double || value instanceof Float)
+        {
+            double d = ((Number) value).doubleValue();
+            writer.write(Double.isNaN(d) || Double.isInfinite(d) ? "null" : value.toString());
+        }
+        else if (value instanceof Number)
+        {
+            writer.write(value.toString());
+        }
+        else
+        {
+            text.setLength(0);
+            appendString(text, value.toString());
+            writer.append(text);
+        }
+    }
+
+    static void appendString(StringBuilder sb, String value)
+    {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            switch (c)
+            {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20 || c == 0x2028 || c == 0x2029)
+                    sb.append("\\u").append(HEX[c >> 12 & 0xf]).append(HEX[c >> 8 & 0xf]).append(HEX[c >> 4 & 0xf]).append(HEX[c & 0xf]);
+                else
+                    sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    public long getRowCount()
+    {
+        return rowCount;
+    }
+
+    /**
+     * ends the json array and the gzip stream, call once all rows are written
+     */
+    public void finish() throws IOException
+    {
+        if (finished || closed)
+            return;
+        finished = true;
+        writer.write(']');
+        writer.flush();
+        if (gzipStream != null)
+            gzipStream.finish();
+    }
+
+    /**
+     * closes the response stream after {@link #finish()}, otherwise the
+     * result is aborted : nothing more is written and the response stream is
+     * left open so the container can still report the error if nothing was
+     * committed
+     */
+    @Override
+    public void close() throws IOException
+    {
+        if (closed)
+            return;
+        closed = true;
+        if (finished)
+        {
+            writer.close();
+        }
+        else if (gzipStream != null)
+        {
+            gzipStream.abort();
+        }
+    }
+
+    private static class GzipStream extends GZIPOutputStream
+    {
+
+        GzipStream(OutputStream out) throws IOException
+        {
+            // sync flush so every flush sends what is compressed so far
+            super(out, 8192, true);
+        }
+
+        /**
+         * releases the native deflater without writing the gzip trailer
+         */
+        void abort()
+        {
+            def.end();
+        }
+
+    }
+
+}
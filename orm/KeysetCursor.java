@@ -0,0 +1,68 @@
+package orm;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * position of a page in keyset (seek) pagination, sort key values of the
+ * boundary row of a page
+ * 
+ * @author Omid Pourhadi
+ * 
+ */
+public class KeysetCursor implements Serializable
+{
+
+    private final Object[] values;
+
+    /**
+     * true means rows before values are requested
+     */
+    private final boolean backward;
+
+    public KeysetCursor(Object[] values, boolean backward)
+    {
+        if (values == null || values.length == 0)
+        {
+            throw new IllegalArgumentException("You have to provide at least one key value");
+        }
+        this.values = values;
+        this.backward = backward;
+    }
+
+    public Object[] getValues()
+    {
+        return values.clone();
+    }
+
+    public boolean isBackward()
+    {
+        return backward;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (backward ? 1231 : 1237);
+        result = prime * result + Arrays.hashCode(values);
+        return result;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        KeysetCursor other = (KeysetCursor) obj;
+        if (backward != other.backward)
+            return false;
+        return Arrays.equals(values, other.values);
+    }
+
+}
@@ -0,0 +1,65 @@
+package orm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * small thread safe bounded cache, least recently used entry is evicted first
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class LruCache<K, V>
+{
+
+    private final int maxSize;
+    private final Map<K, V> map;
+
+    public LruCache(final int maxSize)
+    {
+        if (maxSize < 1)
+        {
+            throw new IllegalArgumentException("cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<K, V>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+            {
+                return size() > LruCache.this.maxSize;
+            }
+        };
+    }
+
+    public synchronized V get(K key)
+    {
+        return map.get(key);
+    }
+
+    public synchronized void put(K key, V value)
+    {
+        map.put(key, value);
+    }
+
+    public synchronized V remove(K key)
+    {
+        return map.remove(key);
+    }
+
+    public synchronized int size()
+    {
+        return map.size();
+    }
+
+    public synchronized void clear()
+    {
+        map.clear();
+    }
+
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+}
@@ -1,28 +1,35 @@
 package orm;
 
 import orm.GroupBy.GroupByProperty;
+import orm.ResultTable.ColumnHeader;
 import orm.Sort.Direction;
 import orm.Sort.Order;
 import orm.WhereClause.QueryParam;
 import orm.ReflectionUtil;
 import orm.CollectionUtil;
-import orm.RegexUtil;
 import orm.StringUtil;
 
 import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.persistence.EntityManager;
 
 import org.apache.commons.lang3.ArrayUtils;
 import org.hibernate.Session;
+import org.hibernate.jdbc.Work;
 import org.jboss.seam.Component;
 import org.jboss.seam.annotations.Transactional;
 import org.jboss.seam.core.Expressions;
@@ -60,15 +67,19 @@ public class QueryController extends Controller
 {
 
     private static final Logger logger = Logger.getLogger(QueryController.class.getName());
-    private final static Pattern pattern = Pattern.compile("from(.+?)(LEFT|RIGHT|INNER)", Pattern.CASE_INSENSITIVE);
-    private final static Pattern FROM_PATTERN = Pattern.compile("(from)\\s(.*)", Pattern.CASE_INSENSITIVE);
     private static final String SPACE = " ";
+    private static final int DEFAULT_FETCH_SIZE = 500;
+    private static final Pattern LINE_BREAK_PATTERN = Pattern.compile("[\\r\\t\\n]");
+    private static final char SHAPE_SEPARATOR = '\u0001';
+    public static final String WINDOW_COUNT_COLUMN = "qc_window_count";
 
-    private String query;
-
-    private StringBuffer queryBuffer;
+    private static final String WINDOW_COUNT_SELECT_ITEM = ", count(*) over() AS " + WINDOW_COUNT_COLUMN + SPACE;
+    /**
+     * generated sql text keyed by query shape, shared by all controllers
+     */
+    private static final LruCache<String, String> SQL_CACHE = new LruCache<String, String>(512);
 
-    private StringBuffer countQueryBuffer;
+    private String query;
 
     private List<WhereClause> whereClauseList;
 
@@ -90,6 +101,63 @@ public class QueryController extends Controller
 
     private Long resultCount;
 
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    /**
+     * run queries on a connection marked read only
+     */
+    private boolean readOnly;
+
+    private RowMapper.Factory rowMapperFactory;
+
+    private transient Session session;
+
+    /**
+     * read total count from <code>count(*) over()</code> of the page query
+     * instead of running count query
+     */
+    private boolean windowCount;
+
+    private Boolean windowCountSupported;
+
+    /**
+     * where values of the last page query which carried window count
+     */
+    private List<Object> windowCountQueryValues;
+
+    /**
+     * where values of the page query whose window count is in resultCount
+     */
+    private List<Object> windowCountValues;
+
+    private boolean keysetPaging;
+
+    /**
+     * milliseconds result count is shared in {@link CountCache}, 0 disables
+     */
+    private long countCacheTtl;
+
+    private boolean approximateCount;
+
+    /**
+     * page to seek, null means first page
+     */
+    private KeysetCursor keysetCursor;
+
+    private KeysetCursor nextKeysetCursor;
+
+    private KeysetCursor previousKeysetCursor;
+
+    /**
+     * last page query was executed in reverse order (previous page)
+     */
+    private boolean keysetReversed;
+
+    /**
+     * last page was full so there are more rows in its direction
+     */
+    private boolean keysetHasMore;
+
     /**
      * values inject into query directly
      */
@@ -110,11 +178,26 @@ public class QueryController extends Controller
         return (EntityManager) Component.getInstance("entityManager");
     }
 
+    /**
+     * @return session set by {@link #setSession(Session)} or the
+     *         hibernateSession component
+     */
     protected Session getSession()
     {
+        if (session != null)
+            return session;
         return (Session) Component.getInstance("hibernateSession");
     }
 
+    /**
+     * runs queries on given session (e.g. a replica session of a read only
+     * request), null uses the hibernateSession component
+     */
+    public void setSession(Session session)
+    {
+        this.session = session;
+    }
+
     public void addWhereClause(WhereClause whereClause)
     {
         if (CollectionUtil.isEmpty(whereClauseList))
@@ -126,7 +209,7 @@ public class QueryController extends Controller
     {
         this.query = query;
         if (StringUtil.isEmpty(getQueryAlias()))
-            this.root = new Root(query);
+            this.root = new Root(SqlStatement.parse(normalize(query)).getAlias());
         else
             this.root = new Root(getQueryAlias());
     }
@@ -153,8 +236,61 @@ public class QueryController extends Controller
         {
             throw new IllegalArgumentException("You have to provide query");
         }
-        //
-        queryBuffer = new StringBuffer(this.query.replaceAll("[\\r|\\t|\\n]", " "));
+        initWhereClauses();
+        Integer maxResults = getMaxResults();
+        Integer firstResult = getFirstResult();
+        KeysetCursor seek = isKeysetActive() ? keysetCursor : null;
+        boolean hasOffset = seek == null && firstResult != null && firstResult > 0;
+        List<Object> queryValues = new ArrayList<Object>();
+        StringBuilder shape = new StringBuilder("Q");
+        appendBaseShape(shape);
+        List<ActiveClause> activeClauses = collectWhere(queryValues, shape);
+        // seek count query must not see seek condition
+        boolean withWindowCount = isWindowCount() && maxResults != null && seek == null && isWindowCountSupported();
+        windowCountQueryValues = withWindowCount ? new ArrayList<Object>(queryValues) : null;
+        String seekCondition = null;
+        if (seek != null)
+        {
+            seekCondition = createSeekCondition(seek, queryValues);
+            shape.append(SHAPE_SEPARATOR).append(seekCondition);
+        }
+        boolean reverseOrder = seek != null && seek.isBackward();
+        keysetReversed = reverseOrder;
+        appendGroupByShape(shape);
+        appendSortShape(shape);
+        shape.append(SHAPE_SEPARATOR).append(maxResults != null).append(hasOffset).append(withWindowCount).append(reverseOrder);
+        String key = shape.toString();
+        String sql = SQL_CACHE.get(key);
+        if (sql == null)
+        {
+            StringBuilder qb = new StringBuilder();
+            SqlStatement statement = parseStatement();
+            int position = 0;
+            if (withWindowCount && isWindowCountApplicable(statement))
+            {
+                qb.append(statement.getSql(), 0, statement.getFromStart());
+                qb.append(WINDOW_COUNT_SELECT_ITEM);
+                position = statement.getFromStart();
+            }
+            render(qb, statement, position, activeClauses, seekCondition, true, reverseOrder);
+            //
+            if (maxResults != null)
+                qb.append(" limit ?");
+            if (hasOffset)
+                qb.append(" offset ?");
+            sql = qb.toString();
+            SQL_CACHE.put(key, sql);
+        }
+        if (maxResults != null)
+            queryValues.add(maxResults);
+        if (hasOffset)
+            queryValues.add(firstResult);
+        values = queryValues;
+        return new Query(sql, queryValues);
+    }
+
+    private void initWhereClauses()
+    {
         // where clause is not null means it specify outside of restrictions
         // method so don't add restrictions
         if (whereClauseList == null)
@@ -163,34 +299,173 @@ public class QueryController extends Controller
             addRestrictions();
             addToExpressions();
         }
+    }
 
-        applyAppenders(queryBuffer);
+    private static String normalize(String sql)
+    {
+        return LINE_BREAK_PATTERN.matcher(sql).replaceAll(SPACE);
+    }
+
+    /**
+     * generated sql only depends on the shape of the query, values are bound
+     * as parameters so same shape means same sql text
+     */
+    private void appendBaseShape(StringBuilder shape)
+    {
+        shape.append(SHAPE_SEPARATOR).append(this.query);
+        shape.append(SHAPE_SEPARATOR).append(this.root.getAlias());
+        if (CollectionUtil.isNotEmpty(queryAppenders))
+        {
+            for (String q : queryAppenders)
+            {
+                shape.append(SHAPE_SEPARATOR).append(q);
+            }
+        }
+    }
 
-        applyWhere(queryBuffer);
-        // Group
+    private void appendGroupByShape(StringBuilder shape)
+    {
+        shape.append(SHAPE_SEPARATOR);
         if (groupBy != null)
         {
-            applyGroupBy(queryBuffer);
+            for (GroupByProperty prop : groupBy)
+            {
+                shape.append(prop.getPropertyName()).append(',');
+            }
         }
-        // Sort
+    }
+
+    private void appendSortShape(StringBuilder shape)
+    {
+        shape.append(SHAPE_SEPARATOR);
         if (sort != null)
         {
-            applyOrderBy(queryBuffer);
+            for (Order order : sort)
+            {
+                shape.append(order.getDirection().name()).append(' ').append(order.getProperty()).append(',');
+            }
         }
-        //
-        if (getMaxResults() != null)
-            queryBuffer.append(" limit ").append(getMaxResults());
+    }
+
+    /**
+     * keyset pagination works when every sort order is ascending or descending
+     */
+    private boolean isKeysetActive()
+    {
+        if (keysetPaging == false || sort == null || getMaxResults() == null)
+            return false;
+        for (Order order : sort)
+        {
+            Direction direction = order.getDirection();
+            if (Direction.ASC.equals(direction) == false && Direction.DESC.equals(direction) == false)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * <code>(k1, k2) &gt; (?, ?)</code> when all keys are sorted in the same
+     * direction otherwise
+     * <code>k1 &gt; ? OR (k1 = ? AND k2 &lt; ?)</code>
+     */
+    private String createSeekCondition(KeysetCursor seek, List<Object> queryValues)
+    {
+        List<String> columns = getSortColumns();
+        List<Boolean> ascending = new ArrayList<Boolean>();
+        boolean sameDirection = true;
+        for (Order order : sort)
+        {
+            boolean asc = Direction.ASC.equals(order.getDirection()) != seek.isBackward();
+            if (ascending.isEmpty() == false && ascending.get(0).booleanValue() != asc)
+                sameDirection = false;
+            ascending.add(asc);
+        }
+        Object[] keyValues = seek.getValues();
+        if (keyValues.length != columns.size())
+        {
+            throw new IllegalArgumentException("keyset cursor does not match sort properties");
+        }
+        StringBuilder sb = new StringBuilder();
+        if (sameDirection && (columns.size() == 1 || isRowValueComparisonSupported()))
+        {
+            sb.append("(");
+            for (int i = 0; i < columns.size(); i++)
+            {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append(columns.get(i));
+            }
+            sb.append(ascending.get(0) ? ") > (" : ") < (");
+            for (int i = 0; i < columns.size(); i++)
+            {
+                if (i > 0)
+                    sb.append(", ");
+                sb.append("?");
+                queryValues.add(keyValues[i]);
+            }
+            sb.append(")");
+        }
+        else
+        {
+            for (int i = 0; i < columns.size(); i++)
+            {
+                if (i > 0)
+                    sb.append(" OR ");
+                sb.append("(");
+                for (int j = 0; j < i; j++)
+                {
+                    sb.append(columns.get(j)).append(" = ? AND ");
+                    queryValues.add(keyValues[j]);
+                }
+                sb.append(columns.get(i)).append(ascending.get(i) ? " > ?" : " < ?");
+                queryValues.add(keyValues[i]);
+                sb.append(")");
+            }
+        }
+        return sb.toString();
+    }
 
-        if (getFirstResult() != null)
+    private List<String> getSortColumns()
+    {
+        List<String> columns = new ArrayList<String>();
+        for (Order order : sort)
         {
-            if (getFirstResult() > 0)
-                queryBuffer.append(" offset ").append(getFirstResult());
+            String property = order.getProperty();
+            columns.add(property.contains(".") ? property : this.root.getAlias() + "." + property);
         }
-        return new Query(queryBuffer.toString(), values);
+        return columns;
+    }
+
+    /**
+     * override for databases without row value comparison e.g. Oracle, SQL
+     * Server
+     */
+    protected boolean isRowValueComparisonSupported()
+    {
+        return true;
+    }
+
+    /**
+     * distinct applies after window functions so the count would be wrong. an
+     * unqualified * can not be followed by another select item on every
+     * database (oracle), qualify it (<code>u.*</code>) to use window count
+     */
+    private boolean isWindowCountApplicable(SqlStatement statement)
+    {
+        if (statement.getFromStart() == -1)
+            return false;
+        String selectList = statement.getSql().substring(statement.getSelectListStart(), statement.getFromStart()).trim();
+        if (selectList.startsWith("*"))
+            return false;
+        return selectList.regionMatches(true, 0, "distinct", 0, "distinct".length()) == false;
     }
 
-    private void applyAppenders(StringBuffer qb)
+    /**
+     * parses base query with appenders once
+     */
+    private SqlStatement parseStatement()
     {
+        StringBuilder qb = new StringBuilder(normalize(this.query));
         if (CollectionUtil.isNotEmpty(queryAppenders))
         {
             for (String q : queryAppenders)
@@ -198,176 +473,276 @@ public class QueryController extends Controller
                 qb.append(q);
             }
         }
+        return SqlStatement.parse(qb.toString());
+    }
+
+    /**
+     * copies statement from <code>from</code> position and splices where,
+     * group by and order by at the end of their clauses. <br />
+     * NOTE : where conditions go before an existing group by/order by so
+     * parameters of base query must not be placed after where clause
+     */
+    private void render(StringBuilder qb, SqlStatement statement, int from, List<ActiveClause> activeClauses, String seekCondition,
+            boolean withOrderBy, boolean reverseOrder)
+    {
+        String text = statement.getSql();
+        int position = from;
+        if (activeClauses.isEmpty() == false || seekCondition != null)
+        {
+            int whereAt = statement.getWhereInsertPosition();
+            if (statement.hasWhere())
+            {
+                // keep precedence of existing conditions
+                qb.append(text, position, statement.getWhereEnd()).append(" (");
+                qb.append(text, statement.getWhereEnd(), whereAt).append(") AND ");
+            }
+            else
+            {
+                qb.append(text, position, whereAt).append(" WHERE ");
+            }
+            if (seekCondition == null)
+            {
+                applyWhere(qb, activeClauses);
+            }
+            else
+            {
+                // seek applies to the whole filter, clauses may be joined by OR
+                if (activeClauses.isEmpty() == false)
+                {
+                    qb.append(" ( ");
+                    applyWhere(qb, activeClauses);
+                    qb.append(" ) AND ");
+                }
+                qb.append("( ").append(seekCondition).append(" )");
+            }
+            position = whereAt;
+            qb.append(SPACE);
+        }
+        if (groupBy != null)
+        {
+            int groupAt = statement.getGroupByInsertPosition();
+            qb.append(text, position, groupAt);
+            qb.append(statement.hasGroupBy() ? ", " : " Group By ");
+            applyGroupBy(qb);
+            position = groupAt;
+            qb.append(SPACE);
+        }
+        if (withOrderBy == false)
+        {
+            int end = statement.hasOrderBy() ? statement.getOrderByStart() : statement.getOrderByInsertPosition();
+            qb.append(text, position, Math.max(position, end));
+            return;
+        }
+        if (sort != null)
+        {
+            int orderAt = statement.getOrderByInsertPosition();
+            qb.append(text, position, orderAt);
+            qb.append(statement.hasOrderBy() ? ", " : " Order By ");
+            applyOrderBy(qb, reverseOrder);
+            position = orderAt;
+            qb.append(SPACE);
+        }
+        qb.append(text, position, text.length());
     }
 
-    private void applyGroupBy(StringBuffer queryBuffer2)
+    private void applyGroupBy(StringBuilder qb)
     {
-        if (RegexUtil.find(queryBuffer.toString(), "Group By") == false)
-            queryBuffer.append(" Group By ");
         int i = 0;
         for (GroupByProperty prop : groupBy)
         {
             if (i > 0)
-                queryBuffer.append(", ");
+                qb.append(", ");
             if (prop.getPropertyName().contains("."))
-                queryBuffer.append(prop.getPropertyName());
+                qb.append(prop.getPropertyName());
             else
-                queryBuffer.append(this.root.getAlias()).append(".").append(prop.getPropertyName());
+                qb.append(this.root.getAlias()).append(".").append(prop.getPropertyName());
             i++;
         }
     }
 
-    private void applyOrderBy(StringBuffer queryBuffer)
+    private void applyOrderBy(StringBuilder qb, boolean reverseOrder)
     {
-        if (RegexUtil.find(queryBuffer.toString(), "Order By") == false)
-            queryBuffer.append(" Order By ");
         int i = 0;
         for (Order order : sort)
         {
             if (i > 0)
-                queryBuffer.append(", ");
+                qb.append(", ");
             Direction direction = order.getDirection();
+            if (reverseOrder)
+                direction = Direction.ASC.equals(direction) ? Direction.DESC : Direction.ASC;
             if (direction.equals(Direction.QUERY))
             {
-                queryBuffer.append(" ").append(order.getProperty());
+                qb.append(" ").append(order.getProperty());
             }
             else
             {
                 if (order.getProperty().contains("."))
-                    queryBuffer.append(order.getProperty()).append(" ").append(direction.getLabel());
+                    qb.append(order.getProperty()).append(" ").append(direction.getLabel());
                 else
-                    queryBuffer.append(this.root.getAlias()).append(".").append(order.getProperty()).append(" ")
+                    qb.append(this.root.getAlias()).append(".").append(order.getProperty()).append(" ")
                             .append(direction.getLabel());
             }
             i++;
         }
     }
 
-    private void applyWhere(StringBuffer queryBuffer)
+    private void applyWhere(StringBuilder qb, List<ActiveClause> activeClauses)
     {
-        values = new ArrayList<Object>(); // must reset values
-        int wcCount = 0;
-        if (RegexUtil.find(queryBuffer.toString(), "where"))
-        {
-            if (CollectionUtil.isNotEmpty(whereClauseList))
-                queryBuffer.append(" AND "); // maybe developer should
-                                             // define
-            // this operand
-        }
-        if (RegexUtil.find(queryBuffer.toString(), "where") == false)
-        {
-            if (CollectionUtil.isNotEmpty(whereClauseList))
-                queryBuffer.append(" WHERE ");
-        }
-        for (WhereClause wc : whereClauseList)
+        int clauseCount = 0;
+        for (ActiveClause activeClause : activeClauses)
         {
-            parseWhereClause(wc, queryBuffer, wcCount);
-            wcCount++;
+            renderWhereClause(activeClause, qb, clauseCount);
+            clauseCount++;
         }
     }
 
-    private void parseWhereClause(WhereClause wc, StringBuffer qb, int clauseCount)
+    /**
+     * evaluates where clauses, collects values of parameters which take part
+     * in the query and describes them in shape
+     */
+    private List<ActiveClause> collectWhere(List<Object> queryValues, StringBuilder shape)
     {
-        StringBuilder sb = new StringBuilder();
-        int queryCount = 0;
-        boolean useOperandGrouping = false;
-        LogicalOperand logicalOperand = wc.getLogicalOperand();
-        for (QueryParam qp : wc)
+        List<ActiveClause> activeClauses = new ArrayList<ActiveClause>();
+        for (WhereClause wc : whereClauseList)
         {
-            Object value = qp.getValue(); // can be comma separated seam
-                                          // expression
-            Operator paramOperator = qp.getOperator();
-            if ((Operator.IS_NULL.equals(paramOperator) || Operator.NOT_NULL.equals(paramOperator)) == false)
+            ActiveClause activeClause = new ActiveClause(wc);
+            for (QueryParam qp : wc)
             {
-                if (shouldIgnoreClause(value))
-                    continue;
-            }
-            //
-            useOperandGrouping = true;
-            //
-            String columnExpression = qp.getColumnExpression();
-            if (columnExpression.contains(".") == false)
-                columnExpression = root.getAlias() + "." + columnExpression;
+                Object value = qp.getValue(); // can be comma separated seam
+                                              // expression
+                Operator paramOperator = qp.getOperator();
+                if ((Operator.IS_NULL.equals(paramOperator) || Operator.NOT_NULL.equals(paramOperator)) == false)
+                {
+                    if (shouldIgnoreClause(value))
+                        continue;
+                }
+                //
+                String columnExpression = qp.getColumnExpression();
+                if (columnExpression.contains(".") == false)
+                    columnExpression = root.getAlias() + "." + columnExpression;
 
-            Function function = qp.getFunction();
-            if (function != null)
-                columnExpression = function.parseColumn(columnExpression);
+                Function function = qp.getFunction();
+                if (function != null)
+                    columnExpression = function.parseColumn(columnExpression);
+
+                if (value != null && value instanceof Date)
+                {
+                    // jdbc uses sql date (convert java util date to sql date
+                    Date d = (Date) value;
+                    java.sql.Date dt = new java.sql.Date(d.getTime());
+                    value = dt;
+                }
 
-            if (value != null && value instanceof Date)
+                String inValues = null;
+                if (Operator.NOT_IN.equals(paramOperator) && isEmptyList(value))
+                    continue; // everything is not in an empty list
+                if (Operator.IN.equals(paramOperator) || Operator.NOT_IN.equals(paramOperator))
+                    inValues = In(value, function, queryValues);
+                else if ((Operator.IS_NULL.equals(paramOperator) || Operator.NOT_NULL.equals(paramOperator)) == false)
+                    parseValue(value, paramOperator, function, queryValues);
+                activeClause.params.add(new ActiveParam(columnExpression, paramOperator, inValues));
+            }
+            if (activeClause.params.isEmpty() == false)
             {
-                // jdbc uses sql date (convert java util date to sql date
-                Date d = (Date) value;
-                java.sql.Date dt = new java.sql.Date(d.getTime());
-                value = dt;
+                activeClauses.add(activeClause);
+                activeClause.appendShape(shape);
             }
+        }
+        return activeClauses;
+    }
 
+    private void renderWhereClause(ActiveClause activeClause, StringBuilder qb, int clauseCount)
+    {
+        WhereClause wc = activeClause.whereClause;
+        LogicalOperand logicalOperand = wc.getLogicalOperand();
+        if (clauseCount > 0)
+            qb.append(SPACE).append(wc.getLogicalOperandClause().name()).append(SPACE);
+        GroupOperand groupOperand = wc.getGroupOperand();
+        if (groupOperand.equals(GroupOperand.GROUP))
+            qb.append(" ( ");
+        int queryCount = 0;
+        for (ActiveParam param : activeClause.params)
+        {
+            Operator paramOperator = param.operator;
             if (queryCount > 0)
-                sb.append(SPACE).append(logicalOperand.name()).append(SPACE);
+                qb.append(SPACE).append(logicalOperand.name()).append(SPACE);
             queryCount++;
-
-            if (Operator.QUERY.equals(paramOperator))
+            qb.append(param.columnExpression);
+            if (Operator.EQUAL.equals(paramOperator))
+                qb.append(" = ?");
+            if (Operator.NOTEQUAL.equals(paramOperator))
+                qb.append(" <> ?");
+            if (Operator.GT.equals(paramOperator))
+                qb.append(" > ?");
+            if (Operator.GTE.equals(paramOperator))
+                qb.append(" >= ?");
+            if (Operator.LT.equals(paramOperator))
+                qb.append(" < ?");
+            if (Operator.LTE.equals(paramOperator))
+                qb.append(" <= ?");
+            if (Operator.LIKE.equals(paramOperator) || Operator.BEGIN_WITH.equals(paramOperator)
+                    || Operator.END_WITH.equals(paramOperator))
             {
-                sb.append(columnExpression);
-                parseValue(value, paramOperator, function);
+                qb.append(" LIKE ? ");
             }
-            else
+            if (Operator.IS_NULL.equals(paramOperator))
+                qb.append(" is null ");
+            if (Operator.NOT_NULL.equals(paramOperator))
+                qb.append(" is not null ");
+            if (Operator.IN.equals(paramOperator) || Operator.NOT_IN.equals(paramOperator))
             {
-                sb.append(columnExpression);
-                if (Operator.EQUAL.equals(paramOperator))
-                    sb.append(" = ?");
-                if (Operator.NOTEQUAL.equals(paramOperator))
-                    sb.append(" <> ?");
-                if (Operator.GT.equals(paramOperator))
-                    sb.append(" > ?");
-                if (Operator.GTE.equals(paramOperator))
-                    sb.append(" >= ?");
-                if (Operator.LT.equals(paramOperator))
-                    sb.append(" < ?");
-                if (Operator.LTE.equals(paramOperator))
-                    sb.append(" <= ?");
-                if (Operator.LIKE.equals(paramOperator) || Operator.BEGIN_WITH.equals(paramOperator)
-                        || Operator.END_WITH.equals(paramOperator))
-                {
-                    sb.append(" LIKE ? ");
-                }
-                if (Operator.IS_NULL.equals(paramOperator))
-                {
-                    sb.append(" is null ");
-                    continue;
-                }
-                if (Operator.NOT_NULL.equals(paramOperator))
-                {
-                    sb.append(" is not null ");
-                    continue;
-                }
+                if (Operator.IN.equals(paramOperator))
+                    qb.append(" IN( ");
+                if (Operator.NOT_IN.equals(paramOperator))
+                    qb.append(" NOT IN( ");
+                qb.append(param.inValues);
+                qb.append(" ) ");
+            }
+        }
+        if (groupOperand.equals(GroupOperand.GROUP))
+            qb.append(" ) ");
+    }
 
-                if (Operator.IN.equals(paramOperator) || Operator.NOT_IN.equals(paramOperator))
-                {
-                    value = In(value);
-                    if (Operator.IN.equals(paramOperator))
-                        sb.append(" IN( ");
-                    if (Operator.NOT_IN.equals(paramOperator))
-                        sb.append(" NOT IN( ");
-                    sb.append(value);
-                    sb.append(" ) ");
-                    continue;
-                }
+    /**
+     * where clause with the parameters which are not ignored
+     */
+    private static class ActiveClause
+    {
+        private final WhereClause whereClause;
+        private final List<ActiveParam> params = new ArrayList<ActiveParam>();
 
-                parseValue(value, paramOperator, function);
+        ActiveClause(WhereClause whereClause)
+        {
+            this.whereClause = whereClause;
+        }
 
+        void appendShape(StringBuilder shape)
+        {
+            shape.append(SHAPE_SEPARATOR).append(whereClause.getLogicalOperandClause().name()).append(' ')
+                    .append(whereClause.getLogicalOperand().name()).append(' ').append(whereClause.getGroupOperand().name());
+            for (ActiveParam param : params)
+            {
+                shape.append(SHAPE_SEPARATOR).append(param.operator.name()).append(' ').append(param.columnExpression);
+                if (param.inValues != null)
+                    shape.append(' ').append(param.inValues);
             }
-
         }
-        if (useOperandGrouping)
+    }
+
+    private static class ActiveParam
+    {
+        private final String columnExpression;
+        private final Operator operator;
+        /**
+         * placeholders (or inlined string) of IN / NOT IN operator
+         */
+        private final String inValues;
+
+        ActiveParam(String columnExpression, Operator operator, String inValues)
         {
-            if (clauseCount > 0)
-                qb.append(SPACE).append(wc.getLogicalOperandClause().name()).append(SPACE);
-            GroupOperand groupOperand = wc.getGroupOperand();
-            if (groupOperand.equals(GroupOperand.GROUP))
-                qb.append(" ( ");
-            qb.append(sb.toString());
-            if (groupOperand.equals(GroupOperand.GROUP))
-                qb.append(" ) ");
+            this.columnExpression = columnExpression;
+            this.operator = operator;
+            this.inValues = inValues;
         }
     }
 
@@ -390,41 +765,17 @@ public class QueryController extends Controller
     }
 
     /**
+     * array and collection values are bound as parameters. placeholder count is
+     * rounded up to a power of two and padded with the last value so lists of
+     * similar size share one statement
+     * 
      * @param value
-     *            comma separated String/Int or List of String/Int
-     * @return
+     *            comma separated String/Int (inlined as is) or array/Collection
+     *            of values
+     * @return placeholders or inlined values
      */
-    private String In(Object value)
+    private String In(Object value, Function function, List<Object> queryValues)
     {
-        StringBuilder sb = new StringBuilder();
-        if (value.getClass().isArray())
-        {
-            Object[] inObject = (Object[]) value;
-            for (int j = 0; j < inObject.length; j++)
-            {
-                Object objectVal = inObject[j];
-                if (j > 0)
-                    sb.append(", ");
-                if (objectVal instanceof String)
-                    sb.append("'").append(objectVal).append("'");
-                else
-                    sb.append(objectVal);
-            }
-        }
-        if (ReflectionUtil.isSubclass(value.getClass(), Collection.class))
-        {
-            List<?> inObject = (List<?>) value;
-            for (int j = 0; j < inObject.size(); j++)
-            {
-                Object objectVal = inObject.get(j);
-                if (j > 0)
-                    sb.append(", ");
-                if (objectVal instanceof String)
-                    sb.append("'").append(objectVal).append("'");
-                else
-                    sb.append(objectVal);
-            }
-        }
         if (value instanceof String)
         {
             String inValue = (String) value;
@@ -432,12 +783,64 @@ public class QueryController extends Controller
             {
                 throw new UnsupportedOperationException("in values can not be Seam Expression");
             }
-            sb.append(inValue);
+            return inValue;
+        }
+        List<Object> items = new ArrayList<Object>();
+        if (value.getClass().isArray())
+        {
+            int length = Array.getLength(value);
+            for (int j = 0; j < length; j++)
+                items.add(Array.get(value, j));
+        }
+        else if (ReflectionUtil.isSubclass(value.getClass(), Collection.class))
+        {
+            items.addAll((Collection<?>) value);
+        }
+        else
+        {
+            items.add(value);
+        }
+        if (items.isEmpty())
+        {
+            // nothing is in an empty list
+            return "NULL";
+        }
+        int bucket = inBucketSize(items.size());
+        StringBuilder sb = new StringBuilder(bucket * 3);
+        for (int j = 0; j < bucket; j++)
+        {
+            Object objectVal = items.get(Math.min(j, items.size() - 1));
+            if (objectVal instanceof Date && objectVal instanceof java.sql.Date == false)
+                objectVal = new java.sql.Date(((Date) objectVal).getTime());
+            if (function != null)
+                objectVal = function.parseColumnValue(objectVal);
+            if (j > 0)
+                sb.append(", ");
+            sb.append("?");
+            queryValues.add(objectVal);
         }
-
         return sb.toString();
     }
 
+    private static boolean isEmptyList(Object value)
+    {
+        if (value == null)
+            return false;
+        if (value.getClass().isArray())
+            return Array.getLength(value) == 0;
+        if (value instanceof Collection)
+            return ((Collection<?>) value).isEmpty();
+        return false;
+    }
+
+    private static int inBucketSize(int size)
+    {
+        int bucket = 1;
+        while (bucket < size)
+            bucket <<= 1;
+        return bucket;
+    }
+
     /**
      * used only for query operator
      * 
@@ -446,7 +849,7 @@ public class QueryController extends Controller
      * @param ejbql
      * @return
      */
-    private void parseValue(Object val, Operator paramOperator, Function function)
+    private void parseValue(Object val, Operator paramOperator, Function function, List<Object> queryValues)
     {
 
         if (val instanceof String)
@@ -459,12 +862,12 @@ public class QueryController extends Controller
                 for (String item : valueItem)
                 {
 
-                    parseExpression(item, paramOperator, function);
+                    parseExpression(item, paramOperator, function, queryValues);
                 }
             }
             else
             {
-                parseExpression(valueExpression, paramOperator, function);
+                parseExpression(valueExpression, paramOperator, function, queryValues);
             }
 
         }
@@ -475,13 +878,13 @@ public class QueryController extends Controller
             {
                 if (function != null)
                     val = function.parseColumnValue(val);
-                values.add(val);
+                queryValues.add(val);
             }
         }
 
     }
 
-    private void parseExpression(String valueExpression, Operator paramOperator, Function function)
+    private void parseExpression(String valueExpression, Operator paramOperator, Function function, List<Object> queryValues)
     {
         // is seam expression
         Object evalValue = null;
@@ -515,7 +918,7 @@ public class QueryController extends Controller
             }
             if (function != null)
                 evalValue = function.parseColumnValue(evalValue);
-            values.add(evalValue);
+            queryValues.add(evalValue);
         }
     }
 
@@ -535,29 +938,35 @@ public class QueryController extends Controller
         {
             throw new IllegalArgumentException("query is not set");
         }
-        if (StringUtil.isEmpty(getCountQueryProjection()))
-            countQueryBuffer = new StringBuffer("select count(*) from ");
-        else
-            countQueryBuffer = new StringBuffer(String.format("select %s from ", getCountQueryProjection()));
-        String cnt = this.query.replaceAll("[\\r|\\t|\\n]", " ");
-        final Matcher matcher = FROM_PATTERN.matcher(cnt);
-        if (matcher.find())
-            countQueryBuffer.append(matcher.group(2));
-        if (whereClauseList == null)
+        initWhereClauses();
+        String projection = getCountQueryProjection();
+        List<Object> queryValues = new ArrayList<Object>();
+        StringBuilder shape = new StringBuilder("C");
+        shape.append(SHAPE_SEPARATOR).append(projection);
+        appendBaseShape(shape);
+        List<ActiveClause> activeClauses = collectWhere(queryValues, shape);
+        appendGroupByShape(shape);
+        String key = shape.toString();
+        String sql = SQL_CACHE.get(key);
+        if (sql == null)
         {
-            whereClauseList = new ArrayList<WhereClause>();
-            addRestrictions();
-            addToExpressions();
-        }
-
-        applyAppenders(countQueryBuffer);
-
-        applyWhere(countQueryBuffer);
-        if (groupBy != null)
-        {
-            applyGroupBy(countQueryBuffer);
+            SqlStatement statement = parseStatement();
+            if (statement.getFromStart() == -1)
+            {
+                throw new IllegalArgumentException("query is not valid, from clause not found");
+            }
+            StringBuilder cqb;
+            if (StringUtil.isEmpty(projection))
+                cqb = new StringBuilder("select count(*) ");
+            else
+                cqb = new StringBuilder(String.format("select %s ", projection));
+            // order by is useless in count query
+            render(cqb, statement, statement.getFromStart(), activeClauses, null, false, false);
+            sql = cqb.toString();
+            SQL_CACHE.put(key, sql);
         }
-        return new Query(countQueryBuffer.toString(), values);
+        values = queryValues;
+        return new Query(sql, queryValues);
     }
 
     protected String getCountQueryProjection()
@@ -575,15 +984,7 @@ public class QueryController extends Controller
             {
                 throw new IllegalArgumentException("query is not valid");
             }
-            alias = alias.replaceAll("[\\r|\\t|\\n]", " ");
-            final Matcher matcher = pattern.matcher(alias);
-            String[] split = null;
-            if (matcher.find())
-                split = matcher.group(1).split("\\s");
-            else
-                split = alias.split("\\s");
-            this.alias = split[split.length - 1];
-            // logger.info(this.alias);
+            this.alias = alias.trim();
         }
 
         public String getAlias()
@@ -625,17 +1026,209 @@ public class QueryController extends Controller
         if (hasQueryParams == false)
         {
             List<Map<String, Object>> list = DBUtil.instance().executeQuery(queryToExecute);
+            readWindowCount(list);
+            readKeyset(list);
             resultList = list;
             return list;
         }
         //
         Object[] parameters = bindParameters(this.queryParamValues, paramValues);
         List<Map<String, Object>> list = DBUtil.instance().executeQuery(queryToExecute, parameters);
-
+        readWindowCount(list);
+        readKeyset(list);
         resultList = list;
         return list;
     }
 
+    /**
+     * takes total count from window count column and removes the column from
+     * rows
+     */
+    private void readWindowCount(List<Map<String, Object>> list)
+    {
+        if (windowCountQueryValues == null || list == null)
+            return;
+        if (list.isEmpty())
+        {
+            applyWindowCount(null);
+            return;
+        }
+        if (list.get(0).containsKey(WINDOW_COUNT_COLUMN) == false)
+            return;
+        applyWindowCount(list.get(0).get(WINDOW_COUNT_COLUMN));
+        for (Map<String, Object> row : list)
+        {
+            row.remove(WINDOW_COUNT_COLUMN);
+        }
+    }
+
+    /**
+     * restores display order of a previous page and remembers boundary keys
+     */
+    private void readKeyset(List<Map<String, Object>> list)
+    {
+        if (list == null || isKeysetActive() == false)
+            return;
+        if (keysetReversed)
+            Collections.reverse(list);
+        String[] columns = getKeysetColumns();
+        Object[] first = list.isEmpty() ? null : keysOf(columns, list.get(0));
+        Object[] last = list.isEmpty() ? null : keysOf(columns, list.get(list.size() - 1));
+        updateKeyset(first, last, list.size());
+    }
+
+    private void readKeyset(ColumnHeader header, List<Object[]> rows)
+    {
+        if (isKeysetActive() == false)
+            return;
+        if (keysetReversed)
+            Collections.reverse(rows);
+        String[] columns = getKeysetColumns();
+        Object[] first = rows.isEmpty() ? null : keysOf(columns, header, rows.get(0));
+        Object[] last = rows.isEmpty() ? null : keysOf(columns, header, rows.get(rows.size() - 1));
+        updateKeyset(first, last, rows.size());
+    }
+
+    /**
+     * @param first
+     *            keys of first row in display order
+     * @param last
+     *            keys of last row in display order
+     */
+    private void updateKeyset(Object[] first, Object[] last, int size)
+    {
+        keysetHasMore = size >= getMaxResults();
+        nextKeysetCursor = last == null ? null : new KeysetCursor(last, false);
+        previousKeysetCursor = first == null ? null : new KeysetCursor(first, true);
+    }
+
+    /**
+     * result column labels of sort properties, the alias of their select item
+     * or the column name when they are selected by *
+     */
+    private String[] getKeysetColumns()
+    {
+        SqlStatement statement = parseStatement();
+        List<String> columns = getSortColumns();
+        String[] labels = new String[columns.size()];
+        for (int i = 0; i < labels.length; i++)
+        {
+            String column = columns.get(i);
+            String label = statement.getColumnLabel(column);
+            labels[i] = label != null ? label : column.substring(column.lastIndexOf('.') + 1);
+        }
+        return labels;
+    }
+
+    private Object[] keysOf(String[] columns, Map<String, Object> row)
+    {
+        Object[] keys = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++)
+        {
+            if (row.containsKey(columns[i]))
+            {
+                keys[i] = row.get(columns[i]);
+                continue;
+            }
+            for (Map.Entry<String, Object> entry : row.entrySet())
+            {
+                if (entry.getKey().equalsIgnoreCase(columns[i]))
+                {
+                    keys[i] = entry.getValue();
+                    break;
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * boundary keys of entities in display order, sort columns are matched to
+     * entity fields ignoring case and underscores
+     */
+    private void readEntityKeyset(List<?> entities)
+    {
+        String[] columns = getKeysetColumns();
+        Object[] first = entities.isEmpty() ? null : entityKeysOf(columns, entities.get(0));
+        Object[] last = entities.isEmpty() ? null : entityKeysOf(columns, entities.get(entities.size() - 1));
+        updateKeyset(first, last, entities.size());
+    }
+
+    private static Object[] entityKeysOf(String[] columns, Object entity)
+    {
+        Object[] keys = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++)
+        {
+            Field field = findField(entity.getClass(), columns[i]);
+            if (field == null)
+                continue;
+            try
+            {
+                field.setAccessible(true);
+                keys[i] = field.get(entity);
+            }
+            catch (IllegalAccessException e)
+            {
+                throw new IllegalStateException(e);
+            }
+        }
+        return keys;
+    }
+
+    private static Field findField(Class<?> clz, String column)
+    {
+        String name = column.replace("_", "");
+        for (Class<?> c = clz; c != null && c != Object.class; c = c.getSuperclass())
+        {
+            for (Field field : c.getDeclaredFields())
+            {
+                if (field.getName().replace("_", "").equalsIgnoreCase(name))
+                    return field;
+            }
+        }
+        return null;
+    }
+
+    private Object[] keysOf(String[] columns, ColumnHeader header, Object[] row)
+    {
+        Object[] keys = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++)
+        {
+            int index = header.indexOf(columns[i]);
+            if (index >= 0)
+                keys[i] = row[index];
+        }
+        return keys;
+    }
+
+    private void readWindowCount(ColumnHeader header, Object[] firstRow)
+    {
+        if (windowCountQueryValues == null)
+            return;
+        if (firstRow == null)
+        {
+            applyWindowCount(null);
+            return;
+        }
+        int index = header.indexOf(WINDOW_COUNT_COLUMN);
+        if (index >= 0)
+            applyWindowCount(firstRow[index]);
+    }
+
+    private void applyWindowCount(Object count)
+    {
+        if (count == null)
+        {
+            // empty page, total is only known if it is the first page
+            Integer fr = getFirstResult();
+            if (fr != null && fr > 0)
+                return;
+            count = 0L;
+        }
+        resultCount = ((Number) count).longValue();
+        windowCountValues = windowCountQueryValues;
+    }
+
     @Transactional
     public <T> T executeForObject(Class<T> clz, Query queryRunner)
     {
@@ -652,20 +1245,290 @@ public class QueryController extends Controller
     @Transactional
     public <E> List<E> executeForList(Class<E> clz, Query queryRunner)
     {
-        List<Object> paramValues = queryRunner.getVals();
-        boolean hasQueryParams = CollectionUtil.isNotEmpty(paramValues) || this.queryParamValues != null;
-        if (hasQueryParams == false)
+        if (rowMapperFactory == null)
         {
-            List<E> queryList = DBUtil.instance().executeQueryList(clz, queryRunner.getQueryToExecute());
+            // entities are mapped by DBUtil, result is read at once
+            String queryToExecute = queryRunner.getQueryToExecute();
+            if (windowCountQueryValues != null)
+            {
+                // DBUtil can not hand out the total, getResultCount runs the
+                // count query instead
+                queryToExecute = queryToExecute.replace(WINDOW_COUNT_SELECT_ITEM, "");
+                windowCountQueryValues = null;
+            }
+            List<Object> paramValues = queryRunner.getVals();
+            boolean hasQueryParams = CollectionUtil.isNotEmpty(paramValues) || this.queryParamValues != null;
+            List<E> queryList;
+            if (hasQueryParams)
+                queryList = DBUtil.instance().executeQueryList(clz, queryToExecute, bindParameters(this.queryParamValues, paramValues));
+            else
+                queryList = DBUtil.instance().executeQueryList(clz, queryToExecute);
+            if (isKeysetActive())
+            {
+                if (keysetReversed)
+                {
+                    queryList = new ArrayList<E>(queryList);
+                    Collections.reverse(queryList);
+                }
+                readEntityKeyset(queryList);
+            }
             resultList = queryList;
             return queryList;
         }
-        Object[] parameters = bindParameters(this.queryParamValues, paramValues);
-        List<E> queryList = DBUtil.instance().executeQueryList(clz, queryRunner.getQueryToExecute(), parameters);
+        return executeForList(getRowMapper(clz), queryRunner);
+    }
+
+    @Transactional
+    public <E> List<E> executeForList(RowMapper<E> rowMapper, Query queryRunner)
+    {
+        final List<E> queryList = new ArrayList<E>();
+        executeForEach(rowMapper, queryRunner, new RowHandler<E>() {
+
+            @Override
+            public void handleRow(E row) throws Exception
+            {
+                queryList.add(row);
+            }
+        });
+        if (queryList.isEmpty())
+            readWindowCount(null, null);
+        if (keysetReversed && isKeysetActive())
+            Collections.reverse(queryList);
         resultList = queryList;
         return queryList;
     }
 
+    /**
+     * @param queryRunner
+     * @return result with a shared column header and an array per row
+     */
+    @Transactional
+    public ResultTable executeForTable(Query queryRunner)
+    {
+        final List<Object[]> rows = new ArrayList<Object[]>();
+        QueryCursor cursor = createCursor(queryRunner);
+        executeCursor(cursor, new RowHandler<Object[]>() {
+
+            @Override
+            public void handleRow(Object[] row) throws Exception
+            {
+                rows.add(row);
+            }
+        });
+        ColumnHeader header = cursor.getHeader();
+        readWindowCount(header, rows.isEmpty() ? null : rows.get(0));
+        int countIndex = header == null ? -1 : header.indexOf(WINDOW_COUNT_COLUMN);
+        if (countIndex >= 0)
+        {
+            header = removeColumn(header, countIndex);
+            for (int i = 0; i < rows.size(); i++)
+            {
+                rows.set(i, removeColumn(rows.get(i), countIndex));
+            }
+        }
+        readKeyset(header, rows);
+        resultList = rows;
+        return new ResultTable(header, rows);
+    }
+
+    private static ColumnHeader removeColumn(ColumnHeader header, int index)
+    {
+        return new ColumnHeader((String[]) removeColumn(header.getColumnNames(), index));
+    }
+
+    private static Object[] removeColumn(Object[] row, int index)
+    {
+        Object[] copy = (Object[]) Array.newInstance(row.getClass().getComponentType(), row.length - 1);
+        System.arraycopy(row, 0, copy, 0, index);
+        System.arraycopy(row, index + 1, copy, index, row.length - index - 1);
+        return copy;
+    }
+
+    private QueryCursor createCursor(Query queryRunner)
+    {
+        Object[] parameters = bindParameters(this.queryParamValues, queryRunner.getVals());
+        QueryCursor cursor = new QueryCursor(queryRunner.getQueryToExecute(), parameters, getFetchSize());
+        cursor.setReadOnly(readOnly);
+        return cursor;
+    }
+
+    private void executeCursor(final QueryCursor cursor, final RowHandler<Object[]> handler)
+    {
+        getSession().doWork(new Work() {
+
+            @Override
+            public void execute(Connection connection) throws SQLException
+            {
+                cursor.forEachRow(connection, handler);
+            }
+        });
+    }
+
+    /**
+     * streams query result row by row, rows are not kept in the controller
+     * so resultList is not populated
+     * 
+     * @param queryRunner
+     * @param handler
+     * @return number of rows read
+     */
+    @Transactional
+    public long execute(Query queryRunner, final RowHandler<Map<String, Object>> handler)
+    {
+        final QueryCursor cursor = createCursor(queryRunner);
+        final long[] count = new long[1];
+        getSession().doWork(new Work() {
+
+            @Override
+            public void execute(Connection connection) throws SQLException
+            {
+                count[0] = cursor.forEach(connection, handler);
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * streams query result mapped into entities one at a time. <br />
+     * NOTE : in keyset pagination a previous page is streamed in reverse order
+     * 
+     * @param clz
+     * @param queryRunner
+     * @param handler
+     * @return number of rows read
+     */
+    @Transactional
+    public <E> long executeForEach(Class<E> clz, Query queryRunner, RowHandler<E> handler)
+    {
+        return executeForEach(getRowMapper(clz), queryRunner, handler);
+    }
+
+    /**
+     * @see #executeForEach(Class, Query, RowHandler)
+     */
+    @Transactional
+    public <E> long executeForEach(final RowMapper<E> rowMapper, Query queryRunner, final RowHandler<E> handler)
+    {
+        final QueryCursor cursor = createCursor(queryRunner);
+        final long[] count = new long[1];
+        final boolean keyset = isKeysetActive();
+        final List<Object[]> boundaryRows = new ArrayList<Object[]>(2);
+        executeCursor(cursor, new RowHandler<Object[]>() {
+
+            private RowMapper.Bound<E> indexedRowMapper;
+
+            @Override
+            public void handleRow(Object[] row) throws Exception
+            {
+                if (indexedRowMapper == null)
+                {
+                    indexedRowMapper = rowMapper.bind(cursor.getHeader().getColumnNames());
+                    readWindowCount(cursor.getHeader(), row);
+                    if (keyset)
+                        boundaryRows.add(row);
+                }
+                handler.handleRow(indexedRowMapper.mapRow(row));
+                if (keyset)
+                {
+                    // keep only first and last row
+                    if (boundaryRows.size() > 1)
+                        boundaryRows.remove(1);
+                    boundaryRows.add(row);
+                }
+                count[0]++;
+            }
+        });
+        if (keyset)
+        {
+            readKeyset(cursor.getHeader(), boundaryRows);
+            keysetHasMore = count[0] >= getMaxResults();
+        }
+        return count[0];
+    }
+
+    /**
+     * streams raw rows, {@link ResultHandler#handleHeader(ColumnHeader)} is
+     * called before the first row. a previous page in keyset pagination is
+     * read in reverse order, so it is buffered (one page at most) and handed
+     * out in display order
+     * 
+     * @param queryRunner
+     * @param handler
+     * @return number of rows read
+     */
+    @Transactional
+    public long executeForRows(Query queryRunner, final ResultHandler handler)
+    {
+        final QueryCursor cursor = createCursor(queryRunner);
+        final long[] count = new long[1];
+        final boolean keyset = isKeysetActive();
+        final boolean buffered = keyset && keysetReversed;
+        // whole page when buffered, otherwise first and last row
+        final List<Object[]> rows = new ArrayList<Object[]>(buffered ? getMaxResults() : 2);
+        executeCursor(cursor, new RowHandler<Object[]>() {
+
+            @Override
+            public void handleRow(Object[] row) throws Exception
+            {
+                if (count[0] == 0)
+                {
+                    readWindowCount(cursor.getHeader(), row);
+                    if (buffered == false)
+                        handler.handleHeader(cursor.getHeader());
+                    if (keyset)
+                        rows.add(row);
+                }
+                else if (buffered)
+                {
+                    rows.add(row);
+                }
+                if (buffered == false)
+                {
+                    handler.handleRow(row);
+                    if (keyset)
+                    {
+                        // keep only first and last row
+                        if (rows.size() > 1)
+                            rows.remove(1);
+                        rows.add(row);
+                    }
+                }
+                count[0]++;
+            }
+        });
+        if (count[0] == 0)
+            readWindowCount(cursor.getHeader(), null);
+        if (keyset)
+        {
+            // puts a buffered page in display order
+            readKeyset(cursor.getHeader(), rows);
+            keysetHasMore = count[0] >= getMaxResults();
+        }
+        if (buffered && rows.isEmpty() == false)
+            handleRows(handler, cursor.getHeader(), rows);
+        return count[0];
+    }
+
+    private static void handleRows(ResultHandler handler, ColumnHeader header, List<Object[]> rows)
+    {
+        try
+        {
+            handler.handleHeader(header);
+            for (Object[] row : rows)
+            {
+                handler.handleRow(row);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Deprecated
     public <E> List<E> executeNativeQuery(Class<E> clz, Query queryRunner)
     {
@@ -728,7 +1591,7 @@ public class QueryController extends Controller
 
     public Integer getFirstResult()
     {
-        if (pageNumber != null && getPageCount() != null)
+        if (pageNumber != null && getMaxResults() != null)
         {
             return getPageNumber() * getMaxResults();
         }
@@ -754,28 +1617,81 @@ public class QueryController extends Controller
     @Transactional
     public Long getResultCount()
     {
+        initWhereClauses();
+        boolean dirty = isAnyParameterDirty();
+        if (dirty == false && resultCount != null)
+            return resultCount;
         Query countQuery = createCountQuery();
-        if (isAnyParameterDirty())
+        if (resultCount != null && windowCountValues != null && windowCountValues.equals(countQuery.getVals()))
+            return resultCount;
+        windowCountValues = null;
+        if (dirty)
         {
             refresh();
         }
-        if (resultCount != null)
-            return resultCount;
         List<Object> paramValues = countQuery.getVals();
         boolean hasParam = CollectionUtil.isNotEmpty(paramValues) || this.queryParamValues != null;
+        Object[] parameters = hasParam ? bindParameters(this.queryParamValues, paramValues) : null;
+        String countSql = countQuery.getQueryToExecute();
         Long count = null;
-        if (hasParam)
+        boolean useCache = getCountCacheTtl() > 0;
+        if (useCache)
+            count = CountCache.instance().get(countSql, parameters, getCountCacheTtl(), isApproximateCount());
+        if (count == null)
         {
-            Object[] parameters = bindParameters(this.queryParamValues, paramValues);
-            count = DBUtil.instance().executeScalar(countQuery.getQueryToExecute(), Long.class, parameters);
+            try
+            {
+                if (hasParam)
+                    count = DBUtil.instance().executeScalar(countSql, Long.class, parameters);
+                else
+                    count = DBUtil.instance().executeScalar(countSql, Long.class);
+                if (useCache)
+                    CountCache.instance().put(countSql, parameters, count);
+            }
+            finally
+            {
+                if (useCache)
+                    CountCache.instance().release(countSql, parameters);
+            }
         }
-        else
-            count = DBUtil.instance().executeScalar(countQuery.getQueryToExecute(), Long.class);
-        resultCount = count == null ? null : count;
+        resultCount = count;
         addToExpressionValues();
         return resultCount;
     }
 
+    public long getCountCacheTtl()
+    {
+        return countCacheTtl;
+    }
+
+    /**
+     * share result counts of same count query and values between controllers
+     * 
+     * @param countCacheTtl
+     *            milliseconds a count stays valid, 0 disables the shared cache
+     */
+    public void setCountCacheTtl(long countCacheTtl)
+    {
+        this.countCacheTtl = countCacheTtl;
+    }
+
+    public boolean isApproximateCount()
+    {
+        return approximateCount;
+    }
+
+    /**
+     * when enabled an expired count is still served while one request
+     * recomputes it, so concurrent pagers never wait for <code>count(*)</code>
+     * on the same query
+     * 
+     * @param approximateCount
+     */
+    public void setApproximateCount(boolean approximateCount)
+    {
+        this.approximateCount = approximateCount;
+    }
+
     public void setFirstResult(Integer firstResult)
     {
         this.firstResult = firstResult;
@@ -793,6 +1709,174 @@ public class QueryController extends Controller
         this.pageNumber = pageNumber;
     }
 
+    public boolean isKeysetPaging()
+    {
+        return keysetPaging;
+    }
+
+    /**
+     * seek pages by sort key values of the boundary row instead of offset, sort
+     * properties must be ascending/descending, not null and unique together
+     * (add primary key as the last one)
+     * 
+     * @param keysetPaging
+     */
+    public void setKeysetPaging(boolean keysetPaging)
+    {
+        this.keysetPaging = keysetPaging;
+    }
+
+    public KeysetCursor getKeysetCursor()
+    {
+        return keysetCursor;
+    }
+
+    /**
+     * @param keysetCursor
+     *            null for first page
+     */
+    public void setKeysetCursor(KeysetCursor keysetCursor)
+    {
+        this.keysetCursor = keysetCursor;
+    }
+
+    /**
+     * @return cursor of the page after last executed page
+     */
+    public KeysetCursor getNextKeysetCursor()
+    {
+        return nextKeysetCursor;
+    }
+
+    /**
+     * @return cursor of the page before last executed page
+     */
+    public KeysetCursor getPreviousKeysetCursor()
+    {
+        return previousKeysetCursor;
+    }
+
+    public void seekNext()
+    {
+        if (nextKeysetCursor != null)
+            setKeysetCursor(nextKeysetCursor);
+    }
+
+    public void seekPrevious()
+    {
+        if (previousKeysetCursor != null)
+            setKeysetCursor(previousKeysetCursor);
+    }
+
+    public boolean isWindowCount()
+    {
+        return windowCount;
+    }
+
+    /**
+     * when enabled paged queries carry <code>count(*) over()</code> and the
+     * total is taken from the first row, so {@link #getResultCount()} does not
+     * need a second query. falls back to count query when database does not
+     * support window functions, query is distinct, select list is an
+     * unqualified <code>*</code>, the page is empty or entities are mapped
+     * by {@link #executeForList(Class, Query)} without a row mapper factory
+     * 
+     * @param windowCount
+     */
+    public void setWindowCount(boolean windowCount)
+    {
+        this.windowCount = windowCount;
+    }
+
+    /**
+     * override for databases which are not detected
+     * 
+     * @return true if database supports <code>count(*) over()</code>
+     */
+    protected boolean isWindowCountSupported()
+    {
+        if (windowCountSupported == null)
+        {
+            final boolean[] supported = new boolean[1];
+            getSession().doWork(new Work() {
+
+                @Override
+                public void execute(Connection connection) throws SQLException
+                {
+                    DatabaseMetaData metaData = connection.getMetaData();
+                    supported[0] = supportsWindowFunctions(metaData.getDatabaseProductName(), metaData.getDatabaseMajorVersion());
+                }
+            });
+            windowCountSupported = supported[0];
+        }
+        return windowCountSupported;
+    }
+
+    private static boolean supportsWindowFunctions(String productName, int majorVersion)
+    {
+        if (productName == null)
+            return false;
+        String name = productName.toLowerCase(Locale.ENGLISH);
+        if (name.contains("postgres") || name.contains("oracle") || name.contains("sql server") || name.startsWith("db2")
+                || name.equals("h2") || name.contains("mariadb"))
+            return true;
+        if (name.contains("mysql"))
+            return majorVersion >= 8;
+        return false;
+    }
+
+    public int getFetchSize()
+    {
+        return fetchSize;
+    }
+
+    /**
+     * rows fetched per round trip in streaming execute methods, 0 uses driver
+     * default
+     * 
+     * @param fetchSize
+     */
+    public void setFetchSize(int fetchSize)
+    {
+        this.fetchSize = fetchSize;
+    }
+
+    public RowMapper.Factory getRowMapperFactory()
+    {
+        return rowMapperFactory;
+    }
+
+    /**
+     * mapper of entity classes in streaming execute methods, without it
+     * {@link #executeForList(Class, Query)} maps entities by DBUtil and takes
+     * keyset boundary keys from entity fields
+     */
+    public void setRowMapperFactory(RowMapper.Factory rowMapperFactory)
+    {
+        this.rowMapperFactory = rowMapperFactory;
+    }
+
+    protected <E> RowMapper<E> getRowMapper(Class<E> clz)
+    {
+        if (rowMapperFactory == null)
+            throw new IllegalStateException("no row mapper factory is set");
+        return rowMapperFactory.getRowMapper(clz);
+    }
+
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    /**
+     * lets the database (or a replica aware driver) treat pager queries as
+     * reads, use {@link #setSession(Session)} to read from a replica session
+     */
+    public void setReadOnly(boolean readOnly)
+    {
+        this.readOnly = readOnly;
+    }
+
     public Integer getMaxResults()
     {
         return maxResults;
@@ -805,12 +1889,16 @@ public class QueryController extends Controller
 
     public boolean isPreviousExists()
     {
+        if (isKeysetActive())
+            return keysetReversed ? keysetHasMore : keysetCursor != null && previousKeysetCursor != null;
         return (getFirstResult() != null && getFirstResult() != 0) && CollectionUtil.isNotEmpty(resultList);
     }
 
     @Transactional
     public boolean isNextExists()
     {
+        if (isKeysetActive())
+            return keysetReversed ? nextKeysetCursor != null : keysetHasMore;
         return resultList != null && getMaxResults() != null && resultList.size() >= getMaxResults();
     }
 
@@ -0,0 +1,222 @@
+package orm;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import orm.ResultTable.ColumnHeader;
+
+/**
+ * reads a native query row by row from a jdbc cursor, nothing is kept in
+ * memory after a row is handed to the {@link RowHandler}
+ * 
+ * @author Omid Pourhadi
+ * 
+ */
+public class QueryCursor
+{
+
+    private final String sql;
+    private final Object[] parameters;
+    private final int fetchSize;
+    private boolean readOnly;
+    private ColumnHeader header;
+
+    /**
+     * @param sql
+     * @param parameters
+     *            can be null
+     * @param fetchSize
+     *            rows fetched per round trip, 0 leaves the driver default.
+     *            note : PostgreSQL only honors it inside a transaction
+     */
+    public QueryCursor(String sql, Object[] parameters, int fetchSize)
+    {
+        this.sql = sql;
+        this.parameters = parameters;
+        this.fetchSize = fetchSize;
+    }
+
+    public boolean isReadOnly()
+    {
+        return readOnly;
+    }
+
+    /**
+     * marks the connection read only while the query runs and restores it
+     * afterwards, so a pooled connection is never handed back read only
+     */
+    public void setReadOnly(boolean readOnly)
+    {
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * column header of the current result, available once the first row is
+     * handed out
+     */
+    public ColumnHeader getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * hands each row out as a map, prefer
+     * {@link #forEachRow(Connection, RowHandler)} for large results
+     * 
+     * @return number of rows read
+     */
+    public long forEach(Connection connection, final RowHandler<Map<String, Object>> handler) throws SQLException
+    {
+        return forEachRow(connection, new RowHandler<Object[]>() {
+
+            @Override
+            public void handleRow(Object[] row) throws Exception
+            {
+                Map<String, Object> map = new TreeMap<String, Object>(String.CASE_INSENSITIVE_ORDER);
+                for (int i = 0; i < row.length; i++)
+                {
+                    map.put(header.getColumnName(i), row[i]);
+                }
+                handler.handleRow(map);
+            }
+        });
+    }
+
+    /**
+     * hands each row out as an array indexed like {@link #getHeader()}, the
+     * array is not reused so handler can keep it
+     * 
+     * @return number of rows read
+     */
+    public long forEachRow(Connection connection, RowHandler<Object[]> handler) throws SQLException
+    {
+        PreparedStatement ps = null;
+        ResultSet rs = null;
+        long count = 0;
+        boolean restoreReadOnly = readOnly && markReadOnly(connection);
+        try
+        {
+            ps = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            if (fetchSize != 0)
+                ps.setFetchSize(fetchSize);
+            bind(ps, parameters);
+            rs = ps.executeQuery();
+            ResultSetMetaData metaData = rs.getMetaData();
+            int columnCount = metaData.getColumnCount();
+            String[] labels = new String[columnCount];
+            for (int i = 0; i < columnCount; i++)
+            {
+                labels[i] = metaData.getColumnLabel(i + 1);
+            }
+            header = new ColumnHeader(labels);
+            while (rs.next())
+            {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++)
+                {
+                    row[i] = rs.getObject(i + 1);
+                }
+                handle(handler, row);
+                count++;
+            }
+            return count;
+        }
+        finally
+        {
+            close(rs, ps);
+            if (restoreReadOnly)
+                unmarkReadOnly(connection);
+        }
+    }
+
+    private static boolean markReadOnly(Connection connection)
+    {
+        try
+        {
+            if (connection.isReadOnly())
+                return false;
+            connection.setReadOnly(true);
+            return true;
+        }
+        catch (SQLException e)
+        {
+            // some drivers refuse inside a running transaction, it is only a
+            // hint
+            return false;
+        }
+    }
+
+    private static void unmarkReadOnly(Connection connection)
+    {
+        try
+        {
+            connection.setReadOnly(false);
+        }
+        catch (SQLException e)
+        {
+            // ignore
+        }
+    }
+
+    static <T> void handle(RowHandler<T> handler, T row) throws SQLException
+    {
+        try
+        {
+            handler.handleRow(row);
+        }
+        catch (SQLException e)
+        {
+            throw e;
+        }
+        catch (RuntimeException e)
+        {
+            throw e;
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void bind(PreparedStatement ps, Object[] parameters) throws SQLException
+    {
+        if (parameters == null)
+            return;
+        for (int i = 0; i < parameters.length; i++)
+        {
+            ps.setObject(i + 1, parameters[i]);
+        }
+    }
+
+    static void close(ResultSet rs, PreparedStatement ps)
+    {
+        if (rs != null)
+        {
+            try
+            {
+                rs.close();
+            }
+            catch (SQLException e)
+            {
+                // ignore
+            }
+        }
+        if (ps != null)
+        {
+            try
+            {
+                ps.close();
+            }
+            catch (SQLException e)
+            {
+                // ignore
+            }
+        }
+    }
+
+}
@@ -0,0 +1,20 @@
+package orm;
+
+import orm.ResultTable.ColumnHeader;
+
+/**
+ * receives the column header once and then query rows one at a time as
+ * arrays indexed like the header
+ * 
+ * @author Omid Pourhadi
+ * 
+ */
+public interface ResultHandler extends RowHandler<Object[]>
+{
+
+    /**
+     * called before the first row, not called for an empty result
+     */
+    public void handleHeader(ColumnHeader header) throws Exception;
+
+}
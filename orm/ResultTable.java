@@ -0,0 +1,106 @@
+package orm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * compact query result, one shared column header and an <code>Object[]</code>
+ * per row instead of a map per row
+ * 
+ * @author Omid Pourhadi
+ * 
+ */
+public class ResultTable implements Serializable
+{
+
+    private final ColumnHeader header;
+    private final List<Object[]> rows;
+
+    public ResultTable(ColumnHeader header, List<Object[]> rows)
+    {
+        this.header = header;
+        this.rows = rows;
+    }
+
+    public ColumnHeader getHeader()
+    {
+        return header;
+    }
+
+    public List<Object[]> getRows()
+    {
+        return rows;
+    }
+
+    public int size()
+    {
+        return rows.size();
+    }
+
+    public Object get(int row, String columnName)
+    {
+        int index = header.indexOf(columnName);
+        return index < 0 ? null : rows.get(row)[index];
+    }
+
+    public static class ColumnHeader implements Serializable
+    {
+        private final String[] columnNames;
+        private final Map<String, Integer> indexes;
+
+        public ColumnHeader(String[] columnNames)
+        {
+            this.columnNames = columnNames;
+            this.indexes = new HashMap<String, Integer>(columnNames.length * 2);
+            for (int i = 0; i < columnNames.length; i++)
+            {
+                String key = columnNames[i].toLowerCase(Locale.ENGLISH);
+                // first column wins like a result set lookup
+                if (indexes.containsKey(key) == false)
+                    indexes.put(key, i);
+            }
+        }
+
+        public String[] getColumnNames()
+        {
+            return columnNames.clone();
+        }
+
+        public int getColumnCount()
+        {
+            return columnNames.length;
+        }
+
+        public String getColumnName(int index)
+        {
+            return columnNames[index];
+        }
+
+        /**
+         * case insensitive lookup
+         * 
+         * @param columnName
+         * @return column index or -1
+         */
+        public int indexOf(String columnName)
+        {
+            if (columnName == null)
+                return -1;
+            Integer index = indexes.get(columnName.toLowerCase(Locale.ENGLISH));
+            return index == null ? -1 : index.intValue();
+        }
+
+        public List<String> asList()
+        {
+            List<String> list = new ArrayList<String>(columnNames.length);
+            for (String columnName : columnNames)
+                list.add(columnName);
+            return list;
+        }
+    }
+
+}
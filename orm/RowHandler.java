@@ -0,0 +1,14 @@
+package orm;
+
+/**
+ * receives query rows one at a time while the result set is being read
+ * 
+ * @author Omid Pourhadi
+ * 
+ */
+public interface RowHandler<T>
+{
+
+    public void handleRow(T row) throws Exception;
+
+}
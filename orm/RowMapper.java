@@ -0,0 +1,42 @@
+package orm;
+
+/**
+ * maps query rows into entities, resolved once per query against the result
+ * columns
+ *
+ * @author Omid Pourhadi
+ *
+ * @param <E>
+ *            : entity
+ */
+public interface RowMapper<E>
+{
+
+    /**
+     * called once before the first row
+     *
+     * @param columnNames
+     *            result column labels
+     * @return mapper reading rows indexed like columnNames
+     */
+    public Bound<E> bind(String[] columnNames);
+
+    public interface Bound<E>
+    {
+
+        public E mapRow(Object[] row) throws Exception;
+
+    }
+
+    /**
+     * creates the mapper of an entity class, see
+     * {@link QueryController#setRowMapperFactory(Factory)}
+     */
+    public interface Factory
+    {
+
+        public <E> RowMapper<E> getRowMapper(Class<E> entityClass);
+
+    }
+
+}
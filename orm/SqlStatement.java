@@ -0,0 +1,397 @@
+package orm;
+
+import java.util.Locale;
+
+/**
+ * clause positions of a native select query found in a single pass. only top
+ * level keywords count, text inside parentheses (sub selects, function calls),
+ * quoted literals and comments is skipped
+ *
+ * <pre>
+ * SqlStatement st = SqlStatement.parse(&quot;select * from users u where u.id = ? order by u.id&quot;);
+ * st.getAlias(); // u
+ * st.getWhereStart(); // 22
+ * </pre>
+ *
+ * @author Omid Pourhadi
+ *
+ */
+public class SqlStatement
+{
+
+    private static final LruCache<String, SqlStatement> STATEMENTS = new LruCache<String, SqlStatement>(256);
+
+    private final String sql;
+    private int selectStart = -1;
+    private int selectListStart = -1;
+    private int fromStart = -1;
+    private int whereStart = -1;
+    private int whereEnd = -1;
+    private int groupByStart = -1;
+    private int havingStart = -1;
+    private int orderByStart = -1;
+    private int limitStart = -1;
+    private String alias;
+
+    private SqlStatement(String sql)
+    {
+        this.sql = sql;
+        scan();
+    }
+
+    public static SqlStatement parse(String sql)
+    {
+        SqlStatement statement = STATEMENTS.get(sql);
+        if (statement == null)
+        {
+            statement = new SqlStatement(sql);
+            STATEMENTS.put(sql, statement);
+        }
+        return statement;
+    }
+
+    private void scan()
+    {
+        int length = sql.length();
+        int depth = 0;
+        int i = 0;
+        // collecting words of first from item for alias
+        boolean inFromItem = false;
+        String lastFromWord = null;
+        String pendingWord = null;
+        int pendingStart = -1;
+        while (i < length)
+        {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`')
+            {
+                i = skipQuoted(i, c);
+                continue;
+            }
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-')
+            {
+                int eol = sql.indexOf('\n', i);
+                i = eol == -1 ? length : eol + 1;
+                continue;
+            }
+            if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*')
+            {
+                int end = sql.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+                continue;
+            }
+            if (c == '(')
+            {
+                depth++;
+                i++;
+                continue;
+            }
+            if (c == ')')
+            {
+                depth--;
+                i++;
+                continue;
+            }
+            if (depth == 0 && c == ',' && inFromItem)
+            {
+                inFromItem = false;
+                i++;
+                continue;
+            }
+            if (isWordChar(c) == false)
+            {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && isWordChar(sql.charAt(i)))
+                i++;
+            if (depth != 0)
+                continue;
+            String word = sql.substring(start, i);
+            String keyword = word.toUpperCase(Locale.ENGLISH);
+            // two word keywords : group by, order by
+            if (pendingWord != null)
+            {
+                if ("BY".equals(keyword))
+                {
+                    if ("GROUP".equals(pendingWord) && groupByStart == -1)
+                        groupByStart = pendingStart;
+                    else if ("ORDER".equals(pendingWord) && orderByStart == -1)
+                        orderByStart = pendingStart;
+                    pendingWord = null;
+                    continue;
+                }
+                pendingWord = null;
+            }
+            if (selectStart == -1)
+            {
+                if ("SELECT".equals(keyword))
+                {
+                    selectStart = start;
+                    selectListStart = i;
+                }
+                continue;
+            }
+            if (fromStart == -1)
+            {
+                if ("FROM".equals(keyword))
+                {
+                    fromStart = start;
+                    inFromItem = true;
+                }
+                continue;
+            }
+            if ("WHERE".equals(keyword))
+            {
+                inFromItem = false;
+                if (whereStart == -1)
+                {
+                    whereStart = start;
+                    whereEnd = i;
+                }
+            }
+            else if ("GROUP".equals(keyword) || "ORDER".equals(keyword))
+            {
+                inFromItem = false;
+                pendingWord = keyword;
+                pendingStart = start;
+            }
+            else if ("HAVING".equals(keyword))
+            {
+                if (havingStart == -1)
+                    havingStart = start;
+            }
+            else if ("LIMIT".equals(keyword) || "OFFSET".equals(keyword) || "FETCH".equals(keyword))
+            {
+                inFromItem = false;
+                if (limitStart == -1)
+                    limitStart = start;
+            }
+            else if (isJoinKeyword(keyword))
+            {
+                inFromItem = false;
+            }
+            else if (inFromItem && "AS".equals(keyword) == false)
+            {
+                lastFromWord = word;
+            }
+        }
+        this.alias = lastFromWord;
+    }
+
+    private int skipQuoted(int i, char quote)
+    {
+        int length = sql.length();
+        i++;
+        while (i < length)
+        {
+            if (sql.charAt(i) == quote)
+            {
+                // doubled quote is an escaped quote
+                if (i + 1 < length && sql.charAt(i + 1) == quote)
+                {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return length;
+    }
+
+    private static boolean isWordChar(char c)
+    {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.';
+    }
+
+    private static boolean isJoinKeyword(String keyword)
+    {
+        return "JOIN".equals(keyword) || "LEFT".equals(keyword) || "RIGHT".equals(keyword) || "INNER".equals(keyword)
+                || "FULL".equals(keyword) || "CROSS".equals(keyword) || "OUTER".equals(keyword) || "NATURAL".equals(keyword)
+                || "ON".equals(keyword) || "UNION".equals(keyword);
+    }
+
+    public String getSql()
+    {
+        return sql;
+    }
+
+    /**
+     * @return alias (or table name) of the first item of from clause, null if
+     *         not found
+     */
+    public String getAlias()
+    {
+        return alias;
+    }
+
+    public int getSelectStart()
+    {
+        return selectStart;
+    }
+
+    /**
+     * @return position right after select keyword
+     */
+    public int getSelectListStart()
+    {
+        return selectListStart;
+    }
+
+    public int getFromStart()
+    {
+        return fromStart;
+    }
+
+    /**
+     * finds the select item of a column and returns the label it has in the
+     * result, its alias when it is aliased
+     *
+     * <pre>
+     * SqlStatement.parse(&quot;select u.user_name as name from users u&quot;).getColumnLabel(&quot;u.user_name&quot;); // name
+     * </pre>
+     *
+     * @param column
+     *            column expression, matched case insensitive
+     * @return label or null if column is not selected on its own
+     */
+    public String getColumnLabel(String column)
+    {
+        if (selectListStart == -1 || fromStart == -1)
+            return null;
+        int depth = 0;
+        int itemStart = selectListStart;
+        int i = selectListStart;
+        while (i <= fromStart)
+        {
+            char c = i < fromStart ? sql.charAt(i) : ',';
+            if (c == '\'' || c == '"' || c == '`')
+            {
+                i = skipQuoted(i, c);
+                continue;
+            }
+            if (c == '(')
+                depth++;
+            else if (c == ')')
+                depth--;
+            else if (c == ',' && depth == 0)
+            {
+                String label = labelOf(sql.substring(itemStart, i).trim(), column);
+                if (label != null)
+                    return label;
+                itemStart = i + 1;
+            }
+            i++;
+        }
+        return null;
+    }
+
+    /**
+     * @return label of item if it selects column
+     */
+    private static String labelOf(String item, String column)
+    {
+        if (item.regionMatches(true, 0, "distinct ", 0, 9))
+            item = item.substring(9).trim();
+        String expression = item;
+        String label = null;
+        int space = item.lastIndexOf(' ');
+        if (space != -1)
+        {
+            expression = item.substring(0, space).trim();
+            label = item.substring(space + 1);
+            if (expression.regionMatches(true, expression.length() - 3, " as", 0, 3))
+                expression = expression.substring(0, expression.length() - 3).trim();
+            if (label.length() > 1 && (label.charAt(0) == '"' || label.charAt(0) == '`'))
+                label = label.substring(1, label.length() - 1);
+        }
+        if (expression.equalsIgnoreCase(column) == false)
+            return null;
+        return label != null ? label : expression.substring(expression.lastIndexOf('.') + 1);
+    }
+
+    public boolean hasWhere()
+    {
+        return whereStart != -1;
+    }
+
+    public int getWhereStart()
+    {
+        return whereStart;
+    }
+
+    /**
+     * @return position right after where keyword
+     */
+    public int getWhereEnd()
+    {
+        return whereEnd;
+    }
+
+    public boolean hasGroupBy()
+    {
+        return groupByStart != -1;
+    }
+
+    public int getGroupByStart()
+    {
+        return groupByStart;
+    }
+
+    public int getHavingStart()
+    {
+        return havingStart;
+    }
+
+    public boolean hasOrderBy()
+    {
+        return orderByStart != -1;
+    }
+
+    public int getOrderByStart()
+    {
+        return orderByStart;
+    }
+
+    public int getLimitStart()
+    {
+        return limitStart;
+    }
+
+    /**
+     * @return end of where clause, where conditions are added here
+     */
+    public int getWhereInsertPosition()
+    {
+        return firstOf(groupByStart, havingStart, orderByStart, limitStart);
+    }
+
+    /**
+     * @return end of group by clause
+     */
+    public int getGroupByInsertPosition()
+    {
+        return firstOf(havingStart, orderByStart, limitStart);
+    }
+
+    /**
+     * @return end of order by clause
+     */
+    public int getOrderByInsertPosition()
+    {
+        return firstOf(limitStart);
+    }
+
+    private int firstOf(int... positions)
+    {
+        for (int position : positions)
+        {
+            if (position != -1)
+                return position;
+        }
+        return sql.length();
+    }
+
+}